@@ -0,0 +1,33 @@
+package autocomplete;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+// Measures building an Autocomplete from a TSV file: parsing, sorting and indexing.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class AutocompleteBuildBenchmark {
+    @Param({"10000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"SORTED", "TRIE"})
+    public Autocomplete.IndexType type;
+
+    private String tsv;
+
+    @Setup
+    public void setup() throws IOException {
+        tsv = SyntheticCorpus.tsv(size).toString();
+    }
+
+    @Benchmark
+    public Autocomplete build() throws IOException {
+        return new Autocomplete(tsv, type);
+    }
+}
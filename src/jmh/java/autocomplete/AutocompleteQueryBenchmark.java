@@ -0,0 +1,82 @@
+package autocomplete;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+// Measures queries against synthetic corpora: short prefixes of 1-2 characters that match huge
+// ranges, long prefixes that match a handful of terms, and prefixes that match nothing. Each
+// invocation uses the next of a fixed set of prefixes, fewer than the caches hold, so after warmup
+// topMatches measures cache hits, as a server sees for popular prefixes. uncachedTopMatches first
+// evicts the prefix from the result and range caches, so it measures searching the index itself.
+// allMatches also reuses the cached ranges of a SORTED index; fuzzyMatches is never cached.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class AutocompleteQueryBenchmark {
+    // Number of distinct prefixes cycled through
+    private static final int PREFIXES = 4096;
+
+    @Param({"10000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"SORTED", "TRIE"})
+    public Autocomplete.IndexType type;
+
+    @Param({"short", "long", "miss"})
+    public String kind;
+
+    private Autocomplete autocomplete;
+    private String[] prefixes;
+
+    @Setup
+    public void setup() throws IOException {
+        autocomplete = new Autocomplete(SyntheticCorpus.tsv(size).toString(), type);
+        if (kind.equals("short")) {
+            prefixes = SyntheticCorpus.prefixes(size, PREFIXES, 1, 2);
+        } else if (kind.equals("long")) {
+            prefixes = SyntheticCorpus.prefixes(size, PREFIXES, 8, 16);
+        } else {
+            prefixes = SyntheticCorpus.misses(PREFIXES);
+        }
+    }
+
+    // The prefix used by the next invocation on each thread.
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+    }
+
+    @Benchmark
+    public List<Term> topMatches(Cursor cursor) {
+        return autocomplete.topMatches(next(cursor), 5);
+    }
+
+    @Benchmark
+    public List<Term> uncachedTopMatches(Cursor cursor) {
+        String prefix = next(cursor);
+        autocomplete.evict(prefix);
+        return autocomplete.topMatches(prefix, 5);
+    }
+
+    @Benchmark
+    public List<Term> fuzzyMatches(Cursor cursor) {
+        return autocomplete.fuzzyMatches(next(cursor), 1, 5);
+    }
+
+    @Benchmark
+    public List<Term> allMatches(Cursor cursor) {
+        return autocomplete.allMatches(next(cursor));
+    }
+
+    private String next(Cursor cursor) {
+        String prefix = prefixes[cursor.next];
+        cursor.next = (cursor.next + 1) % prefixes.length;
+        return prefix;
+    }
+}
@@ -0,0 +1,110 @@
+package autocomplete;
+
+import java.io.*;
+import java.net.*;
+import java.net.http.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Drives a running autocomplete Server with concurrent /query requests and reports throughput
+// and latency at 1, 2, 4, ... clients up to twice the number of cores. Start the server with
+// -XX:ActiveProcessorCount=N (or under taskset) to measure how throughput grows per core.
+public class LoadTest {
+    // Seconds spent measuring each level of concurrency
+    private static final int SECONDS = Integer.parseInt(
+        System.getenv().getOrDefault("SECONDS", "10")
+        );
+    // Number of distinct prefixes sampled from the corpus
+    private static final int PREFIXES = 100_000;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("java LoadTest [server url] [tsv file]");
+        }
+        String url = args[0];
+        List<String> prefixes = samplePrefixes(Paths.get(args[1]), new Random(143));
+        HttpClient client = HttpClient.newBuilder()
+                                      .version(HttpClient.Version.HTTP_1_1)
+                                      .executor(Executors.newCachedThreadPool())
+                                      .build();
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("clients\trequests/s\tp50 ms\tp99 ms");
+        for (int clients = 1; clients <= 2 * cores; clients *= 2) {
+            run(client, url, prefixes, clients);
+        }
+        System.exit(0);
+    }
+
+    // Runs the given number of clients for SECONDS and prints their combined results.
+    private static void run(HttpClient client, String url, List<String> prefixes, int clients)
+            throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SECONDS);
+        List<Future<long[]>> futures = new ArrayList<>();
+        for (int i = 0; i < clients; i += 1) {
+            Random random = new Random(i);
+            futures.add(pool.submit(() -> {
+                long[] latencies = new long[1024];
+                int count = 0;
+                while (System.nanoTime() < deadline) {
+                    String prefix = prefixes.get(random.nextInt(prefixes.size()));
+                    // The server decodes %XX but not +, so spaces must be sent as %20
+                    URI uri = URI.create(url + "/query?s="
+                                         + URLEncoder.encode(prefix, StandardCharsets.UTF_8)
+                                                     .replace("+", "%20"));
+                    long start = System.nanoTime();
+                    client.send(HttpRequest.newBuilder(uri).build(),
+                                HttpResponse.BodyHandlers.discarding());
+                    if (count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, 2 * count);
+                    }
+                    latencies[count++] = System.nanoTime() - start;
+                }
+                return Arrays.copyOf(latencies, count);
+            }));
+        }
+        long[] all = new long[0];
+        for (Future<long[]> future : futures) {
+            try {
+                long[] latencies = future.get();
+                int offset = all.length;
+                all = Arrays.copyOf(all, offset + latencies.length);
+                System.arraycopy(latencies, 0, all, offset, latencies.length);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        pool.shutdown();
+        Arrays.sort(all);
+        System.out.printf("%d\t%.0f\t%.2f\t%.2f%n", clients, all.length / (double) SECONDS,
+                          percentile(all, 0.50) / 1e6, percentile(all, 0.99) / 1e6);
+    }
+
+    // Returns the given percentile of the sorted latencies, or 0 if there are none.
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.floor(p * sorted.length))];
+    }
+
+    // Returns prefixes of 1 to 8 characters of queries drawn at random from the TSV file, which
+    // mimics the mix of short and long prefixes produced by typing.
+    private static List<String> samplePrefixes(Path tsv, Random random) throws IOException {
+        List<String> queries = new ArrayList<>();
+        try (BufferedReader input = Files.newBufferedReader(tsv)) {
+            String line;
+            while ((line = input.readLine()) != null) {
+                queries.add(line.substring(line.indexOf('\t') + 1));
+            }
+        }
+        List<String> prefixes = new ArrayList<>(PREFIXES);
+        for (int i = 0; i < PREFIXES && !queries.isEmpty(); i += 1) {
+            String query = queries.get(random.nextInt(queries.size()));
+            prefixes.add(query.substring(0, Math.min(query.length(), 1 + random.nextInt(8))));
+        }
+        return prefixes;
+    }
+}
@@ -0,0 +1,45 @@
+package autocomplete;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+// Measures the cost of locating the [lo, hi) range of a prefix in a SortedTermIndex. The GC
+// profiler's gc.alloc.rate.norm should stay at 0 B/op.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrefixRangeBenchmark {
+    @Param({"100000"})
+    public int size;
+
+    @Param({"s", "Sea", "seattle, wa", "zzzz"})
+    public String prefix;
+
+    private SortedTermIndex index;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(143);
+        List<Term> terms = new ArrayList<>(size);
+        for (int i = 0; i < size; i += 1) {
+            char[] query = new char[4 + random.nextInt(12)];
+            for (int j = 0; j < query.length; j += 1) {
+                query[j] = (char) ('a' + random.nextInt(26));
+            }
+            terms.add(new Term(new String(query), random.nextInt(1_000_000)));
+        }
+        terms.add(new Term("Seattle, Washington, United States", 3_000_000));
+        Collections.sort(terms);
+        index = new SortedTermIndex(terms);
+    }
+
+    @Benchmark
+    public long range() {
+        return index.range(prefix);
+    }
+}
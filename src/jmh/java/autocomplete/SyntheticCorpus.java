@@ -0,0 +1,85 @@
+package autocomplete;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.ObjIntConsumer;
+
+// Generates deterministic autocomplete corpora of any size for benchmarks. Queries are one to four
+// made-up words built from a fixed set of syllables, so short prefixes match huge ranges the way
+// they do in real corpora, and weights follow a heavy-tailed (Pareto) distribution.
+class SyntheticCorpus {
+    private static final String[] SYLLABLES = {
+        "ba", "be", "bo", "ca", "ce", "co", "da", "de", "di", "fa", "fe", "ga", "go", "ha", "he",
+        "ka", "ki", "la", "le", "li", "lo", "ma", "me", "mi", "mo", "na", "ne", "no", "pa", "pe",
+        "ra", "re", "ri", "ro", "sa", "se", "si", "so", "ta", "te", "to", "va", "ve", "wa", "ya"
+    };
+    // Seed shared by every benchmark so that all of them see the same corpus
+    static final long SEED = 143;
+
+    // Passes each of the size generated queries and its weight to the sink.
+    static void generate(int size, ObjIntConsumer<String> sink) {
+        Random random = new Random(SEED);
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < size; i += 1) {
+            query.setLength(0);
+            int words = 1 + random.nextInt(4);
+            for (int w = 0; w < words; w += 1) {
+                if (w > 0) {
+                    query.append(' ');
+                }
+                int syllables = 2 + random.nextInt(3);
+                for (int s = 0; s < syllables; s += 1) {
+                    query.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+                }
+                query.setCharAt(query.length() - 2 * syllables,
+                                Character.toUpperCase(query.charAt(query.length() - 2 * syllables)));
+            }
+            int weight = (int) Math.min(Integer.MAX_VALUE,
+                                        100 / Math.pow(1 - random.nextDouble(), 1.5));
+            sink.accept(query.toString(), weight);
+        }
+    }
+
+    // Returns a TSV file holding the generated corpus of the given size, writing it to the
+    // temporary directory the first time it is needed.
+    static Path tsv(int size) throws IOException {
+        Path path = Paths.get(System.getProperty("java.io.tmpdir"),
+                              "autocomplete-" + size + "-" + SEED + ".tsv");
+        if (!Files.exists(path)) {
+            Path partial = Files.createTempFile(path.getParent(), "autocomplete-", ".tsv");
+            try (PrintWriter output = new PrintWriter(Files.newBufferedWriter(partial))) {
+                generate(size, (query, weight) -> output.print(weight + "\t" + query + "\n"));
+            }
+            Files.move(partial, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return path;
+    }
+
+    // Returns count prefixes of generated queries, cut to between minLength and maxLength
+    // characters, spread evenly through a corpus of the given size.
+    static String[] prefixes(int size, int count, int minLength, int maxLength) {
+        Random random = new Random(SEED + 1);
+        List<String> prefixes = new ArrayList<>(count);
+        int stride = Math.max(1, size / count);
+        int[] i = {0};
+        generate(size, (query, weight) -> {
+            if (i[0]++ % stride == 0 && prefixes.size() < count) {
+                int length = minLength + random.nextInt(maxLength - minLength + 1);
+                prefixes.add(query.substring(0, Math.min(length, query.length())));
+            }
+        });
+        return prefixes.toArray(new String[0]);
+    }
+
+    // Returns count prefixes that match no generated query, since no syllable contains a 'q'.
+    static String[] misses(int count) {
+        Random random = new Random(SEED + 2);
+        String[] misses = new String[count];
+        for (int i = 0; i < count; i += 1) {
+            misses[i] = SYLLABLES[random.nextInt(SYLLABLES.length)] + "q"
+                        + SYLLABLES[random.nextInt(SYLLABLES.length)];
+        }
+        return misses;
+    }
+}
@@ -0,0 +1,46 @@
+package autocomplete;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+// Measures sorting terms with the Term comparators and with TermStore, which sorts without Term
+// objects.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TermComparatorBenchmark {
+    @Param({"10000", "1000000"})
+    public int size;
+
+    private List<Term> terms;
+
+    @Setup
+    public void setup() {
+        terms = new ArrayList<>(size);
+        SyntheticCorpus.generate(size, (query, weight) -> terms.add(new Term(query, weight)));
+    }
+
+    @Benchmark
+    public List<Term> sortByQuery() {
+        List<Term> sorted = new ArrayList<>(terms);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    @Benchmark
+    public List<Term> sortByWeight() {
+        List<Term> sorted = new ArrayList<>(terms);
+        sorted.sort(Term::compareToByReverseWeight);
+        return sorted;
+    }
+
+    @Benchmark
+    public TermStore buildStore() {
+        return TermStore.of(terms);
+    }
+}
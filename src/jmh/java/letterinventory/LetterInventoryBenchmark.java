@@ -0,0 +1,155 @@
+package letterinventory;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+// Measures the operations anagram search repeats on every step with LetterInventory and with
+// PackedInventory: testing whether a word fits in a phrase, taking it away, comparing equal
+// inventories, building an inventory from text and printing one. Phrases are random strings of 12
+// to 20 letters, and the word paired with every other phrase is made from its letters, so half of
+// the fit tests succeed; each invocation uses the next of a fixed set of pairs. The gradle jmh task
+// adds the GC profiler, whose gc.alloc.rate.norm shows that PackedInventory allocates only when
+// building or printing.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LetterInventoryBenchmark {
+    // Number of distinct pairs cycled through, a power of two
+    private static final int PAIRS = 1024;
+
+    private String[] texts;
+    private LetterInventory[] phrases;
+    private LetterInventory[] copies;
+    private LetterInventory[] words;
+    private PackedInventory[] packedPhrases;
+    private PackedInventory[] packedCopies;
+    private PackedInventory[] packedWords;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(143);
+        texts = new String[PAIRS];
+        phrases = new LetterInventory[PAIRS];
+        copies = new LetterInventory[PAIRS];
+        words = new LetterInventory[PAIRS];
+        packedPhrases = new PackedInventory[PAIRS];
+        packedCopies = new PackedInventory[PAIRS];
+        packedWords = new PackedInventory[PAIRS];
+        for (int i = 0; i < PAIRS; i += 1) {
+            texts[i] = word(random, 12 + random.nextInt(9));
+            String word = i % 2 == 0 ? part(random, texts[i]) : word(random, 3 + random.nextInt(5));
+            phrases[i] = new LetterInventory(texts[i]);
+            copies[i] = new LetterInventory(texts[i]);
+            words[i] = new LetterInventory(word);
+            packedPhrases[i] = new PackedInventory(texts[i]);
+            packedCopies[i] = new PackedInventory(texts[i]);
+            packedWords[i] = new PackedInventory(word);
+        }
+    }
+
+    // The pair used by the next invocation on each thread, and the inventory that
+    // packedSubtractInPlace works in.
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+        private final PackedInventory scratch = new PackedInventory("");
+    }
+
+    @Benchmark
+    public boolean letterInventoryContains(Cursor cursor) {
+        int i = next(cursor);
+        return phrases[i].subtract(words[i]) != null;
+    }
+
+    @Benchmark
+    public boolean packedContainsAll(Cursor cursor) {
+        int i = next(cursor);
+        return packedPhrases[i].containsAll(packedWords[i]);
+    }
+
+    @Benchmark
+    public LetterInventory letterInventorySubtract(Cursor cursor) {
+        int i = fitting(cursor);
+        return phrases[i].subtract(words[i]);
+    }
+
+    @Benchmark
+    public PackedInventory packedSubtractInPlace(Cursor cursor) {
+        int i = fitting(cursor);
+        cursor.scratch.set(packedPhrases[i]);
+        cursor.scratch.subtractInPlace(packedWords[i]);
+        return cursor.scratch;
+    }
+
+    @Benchmark
+    public boolean letterInventoryEquals(Cursor cursor) {
+        int i = next(cursor);
+        return phrases[i].equals(copies[i]);
+    }
+
+    @Benchmark
+    public boolean packedEquals(Cursor cursor) {
+        int i = next(cursor);
+        return packedPhrases[i].equals(packedCopies[i]);
+    }
+
+    @Benchmark
+    public LetterInventory letterInventoryConstruct(Cursor cursor) {
+        return new LetterInventory(texts[next(cursor)]);
+    }
+
+    @Benchmark
+    public PackedInventory packedConstruct(Cursor cursor) {
+        return new PackedInventory(texts[next(cursor)]);
+    }
+
+    @Benchmark
+    public String letterInventoryToString(Cursor cursor) {
+        return phrases[next(cursor)].toString();
+    }
+
+    @Benchmark
+    public String packedToString(Cursor cursor) {
+        return packedPhrases[next(cursor)].toString();
+    }
+
+    private int next(Cursor cursor) {
+        int i = cursor.next;
+        cursor.next = (cursor.next + 1) & (PAIRS - 1);
+        return i;
+    }
+
+    // Returns the next pair whose word fits in its phrase.
+    private int fitting(Cursor cursor) {
+        int i = cursor.next & (PAIRS - 2);
+        cursor.next = (i + 2) & (PAIRS - 1);
+        return i;
+    }
+
+    private static String word(Random random, int length) {
+        char[] word = new char[length];
+        for (int i = 0; i < word.length; i += 1) {
+            word[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(word);
+    }
+
+    // Returns 3 to 7 of the letters of text, in a random order.
+    private static String part(Random random, String text) {
+        List<Character> letters = new ArrayList<>();
+        for (char c : text.toCharArray()) {
+            letters.add(c);
+        }
+        Collections.shuffle(letters, random);
+        StringBuilder part = new StringBuilder();
+        for (char c : letters.subList(0, 3 + random.nextInt(5))) {
+            part.append(c);
+        }
+        return part.toString();
+    }
+}
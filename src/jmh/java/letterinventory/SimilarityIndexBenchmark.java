@@ -0,0 +1,81 @@
+package letterinventory;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+// Measures finding the 10 inventories most similar to a word with SimilarityIndex and with the
+// scan it replaced, which pushed every inventory through a PriorityQueue ordered by
+// LetterInventory.similarity. Inventories come from random words of 3 to 12 letters, and each
+// invocation uses the next of a fixed set of random targets.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class SimilarityIndexBenchmark {
+    // Number of distinct targets cycled through
+    private static final int TARGETS = 1024;
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    private List<LetterInventory> inventories;
+    private SimilarityIndex index;
+    private LetterInventory[] targets;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(143);
+        inventories = new ArrayList<>(size);
+        for (int i = 0; i < size; i += 1) {
+            inventories.add(new LetterInventory(word(random)));
+        }
+        index = new SimilarityIndex(inventories);
+        targets = new LetterInventory[TARGETS];
+        for (int i = 0; i < TARGETS; i += 1) {
+            targets[i] = new LetterInventory(word(random));
+        }
+    }
+
+    // The target used by the next invocation on each thread.
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+    }
+
+    @Benchmark
+    public int[] similarityIndex(Cursor cursor) {
+        return index.top(next(cursor), 10);
+    }
+
+    @Benchmark
+    public List<LetterInventory> priorityQueueBaseline(Cursor cursor) {
+        LetterInventory target = next(cursor);
+        PriorityQueue<LetterInventory> pq = new PriorityQueue<>(
+            Comparator.comparingDouble(target::similarity));
+        for (LetterInventory inventory : inventories) {
+            pq.add(inventory);
+            if (pq.size() > 10) {
+                pq.remove();
+            }
+        }
+        return new ArrayList<>(pq);
+    }
+
+    private LetterInventory next(Cursor cursor) {
+        LetterInventory target = targets[cursor.next];
+        cursor.next = (cursor.next + 1) % targets.length;
+        return target;
+    }
+
+    private static String word(Random random) {
+        char[] word = new char[3 + random.nextInt(10)];
+        for (int i = 0; i < word.length; i += 1) {
+            word[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(word);
+    }
+}
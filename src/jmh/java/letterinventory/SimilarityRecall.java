@@ -0,0 +1,104 @@
+package letterinventory;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Evaluates approximate search with SimilarityIndex: for every number of probed lists, prints the
+// recall@10 against the exact ranking by LetterInventory.similarity, and the mean time per query.
+// An approximate result counts as found if its exact similarity is at least that of the 10th best
+// inventory, so ties at the cutoff never count against it. Reads the distinct inventories of the
+// given dictionary files, or of that many random words if the only argument is a number, e.g.
+// ./gradlew recall -Precall="src/main/java/letterinventory/data/english.txt" or -Precall=1000000
+public class SimilarityRecall {
+    // Number of results compared
+    private static final int K = 10;
+    // Number of queries, drawn from the inventories themselves and from random words
+    private static final int QUERIES = 200;
+
+    public static void main(String[] args) throws IOException {
+        Random random = new Random(143);
+        Set<LetterInventory> distinct = new LinkedHashSet<>();
+        if (args.length == 1 && args[0].matches("\\d+")) {
+            for (int i = Integer.parseInt(args[0]); i > 0; i -= 1) {
+                distinct.add(new LetterInventory(word(random)));
+            }
+        } else {
+            for (String filename : args) {
+                for (String line : Files.readAllLines(Paths.get(filename))) {
+                    distinct.add(new LetterInventory(line));
+                }
+            }
+        }
+        List<LetterInventory> inventories = new ArrayList<>(distinct);
+        int lists = Math.max(1, (int) Math.sqrt(inventories.size()));
+        long start = System.nanoTime();
+        SimilarityIndex index = new SimilarityIndex(inventories, lists);
+        System.out.printf("%d inventories in %d lists, built in %.0f ms%n", inventories.size(),
+                          index.lists(), (System.nanoTime() - start) / 1e6);
+
+        LetterInventory[] queries = new LetterInventory[QUERIES];
+        double[] cutoffs = new double[QUERIES];
+        for (int q = 0; q < QUERIES; q += 1) {
+            queries[q] = q % 2 == 0 ? inventories.get(random.nextInt(inventories.size()))
+                                    : new LetterInventory(word(random));
+            cutoffs[q] = cutoff(queries[q], inventories);
+        }
+        // The first pass only warms up the JIT, so that the timings of the second are comparable
+        for (int pass = 0; pass < 2; pass += 1) {
+            sweep(index, inventories, queries, cutoffs, pass == 1);
+        }
+    }
+
+    // Searches for every query with 1, 2, 4... probes and all lists, printing the results if asked.
+    private static void sweep(SimilarityIndex index, List<LetterInventory> inventories,
+                              LetterInventory[] queries, double[] cutoffs, boolean print) {
+        if (print) {
+            System.out.println("probes\trecall@10\tus/query");
+        }
+        for (int probes = 1; ; probes *= 2) {
+            probes = Math.min(probes, index.lists());
+            double found = 0;
+            long time = 0;
+            for (int q = 0; q < QUERIES; q += 1) {
+                long start = System.nanoTime();
+                int[] top = index.top(queries[q], K, probes);
+                time += System.nanoTime() - start;
+                for (int i : top) {
+                    // Allows for the float rounding of the index
+                    if (queries[q].similarity(inventories.get(i)) >= cutoffs[q] - 1e-6) {
+                        found += 1;
+                    }
+                }
+            }
+            if (print) {
+                System.out.printf("%d\t%.4f\t%.1f%n", probes,
+                                  found / (QUERIES * Math.min(K, inventories.size())),
+                                  time / 1e3 / QUERIES);
+            }
+            if (probes == index.lists()) {
+                break;
+            }
+        }
+    }
+
+    // Returns the exact similarity of the K-th most similar inventory to the target.
+    private static double cutoff(LetterInventory target, List<LetterInventory> inventories) {
+        PriorityQueue<Double> top = new PriorityQueue<>();
+        for (LetterInventory inventory : inventories) {
+            top.add(target.similarity(inventory));
+            if (top.size() > K) {
+                top.remove();
+            }
+        }
+        return top.isEmpty() ? 0 : top.peek();
+    }
+
+    private static String word(Random random) {
+        char[] word = new char[3 + random.nextInt(10)];
+        for (int i = 0; i < word.length; i += 1) {
+            word[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(word);
+    }
+}
@@ -0,0 +1,72 @@
+package searchengine;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+// Measures conjunctive queries that pair a term in every document with a rare one, as in
+// "the seattle". hashSetBaseline repeats the original evaluation, which copied the posting set of
+// whichever term HashSet iteration visited first and removed the misses one by one. It runs over
+// Integer IDs rather than whole documents, which only flatters it.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConjunctiveQueryBenchmark {
+    @Param({"100000"})
+    public int size;
+
+    @Param({"the seattle", "seattle the", "the of seattle", "the nowhere"})
+    public String query;
+
+    private SearchEngine engine;
+    private Map<String, Set<Integer>> baseline;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(143);
+        engine = new SearchEngine();
+        baseline = new HashMap<>();
+        StringBuilder document = new StringBuilder();
+        for (int i = 0; i < size; i += 1) {
+            document.setLength(0);
+            document.append("Title ").append(i).append("\nthe of");
+            for (int j = 0; j < 20; j += 1) {
+                document.append(" w").append(random.nextInt(5_000));
+            }
+            // One document in a thousand mentions seattle
+            if (random.nextInt(1_000) == 0) {
+                document.append(" seattle");
+            }
+            engine.index(document.toString());
+            for (String term : document.toString().split("\\s+")) {
+                baseline.computeIfAbsent(term, t -> new HashSet<>()).add(i);
+            }
+        }
+        engine.refresh();
+    }
+
+    @Benchmark
+    public List<String> planned() {
+        return engine.search(query);
+    }
+
+    @Benchmark
+    public Set<Integer> hashSetBaseline() {
+        Set<Integer> results = null;
+        for (String term : new HashSet<>(Arrays.asList(query.split("\\s+")))) {
+            Set<Integer> documents = baseline.get(term);
+            if (documents != null) {
+                if (results == null) {
+                    results = new HashSet<>(documents);
+                } else {
+                    results.removeIf(document -> !documents.contains(document));
+                }
+            }
+        }
+        return results == null ? new HashSet<>() : results;
+    }
+}
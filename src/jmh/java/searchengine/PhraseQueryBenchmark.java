@@ -0,0 +1,73 @@
+package searchengine;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+// Measures phrase and NEAR/k queries against the plain conjunction of the same terms. Positions
+// are only decoded for documents containing every term, so the positional queries should stay
+// within a small factor of the conjunction.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PhraseQueryBenchmark {
+    @Param({"100000"})
+    public int size;
+
+    // Common terms, and a rare pair that usually occurs as a phrase
+    @Param({"of the", "new york"})
+    public String terms;
+
+    private SearchEngine engine;
+    private String phrase;
+    private String near;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(143);
+        engine = new SearchEngine(1, true);
+        StringBuilder document = new StringBuilder();
+        for (int i = 0; i < size; i += 1) {
+            document.setLength(0);
+            document.append("Title ").append(i).append("\n");
+            for (int j = 0; j < 40; j += 1) {
+                int word = random.nextInt(100);
+                if (word < 10) {
+                    document.append(word % 2 == 0 ? " the" : " of");
+                } else if (word == 10 && random.nextInt(20) == 0) {
+                    document.append(random.nextBoolean() ? " New York" : " new, york");
+                } else {
+                    document.append(" w").append(random.nextInt(5_000));
+                }
+            }
+            engine.index(document.toString());
+        }
+        engine.refresh();
+        phrase = "\"" + terms + "\"";
+        near = terms.replace(" ", " NEAR/3 ");
+    }
+
+    @Benchmark
+    public List<String> conjunction() {
+        return engine.search(terms);
+    }
+
+    @Benchmark
+    public List<String> phrase() {
+        return engine.search(phrase);
+    }
+
+    @Benchmark
+    public List<String> near() {
+        return engine.search(near);
+    }
+
+    @Benchmark
+    public List<String> rankedPhrase() {
+        return engine.search(phrase, 10);
+    }
+}
@@ -0,0 +1,61 @@
+package searchengine;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+// Measures indexing synthetic Zipf corpora. build indexes a whole corpus with indexAll and refreshes,
+// as the server does at startup. index adds one document at a time, refreshing every REFRESH
+// documents as a near-real-time writer would, and reports documents per second; its engine starts
+// over once the whole corpus has been indexed, so size bounds how large the index grows.
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class SearchEngineIndexBenchmark {
+    // Number of documents indexed between refreshes by index
+    private static final int REFRESH = 1_000;
+
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    private List<String> documents;
+
+    @Setup
+    public void setup() {
+        documents = SyntheticCorpus.documents(size);
+    }
+
+    // The engine that index adds to on each thread, and the next document it adds.
+    @State(Scope.Thread)
+    public static class Writer {
+        private SearchEngine engine;
+        private int next;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public SearchEngine build() {
+        SearchEngine engine = new SearchEngine();
+        engine.indexAll(documents);
+        engine.refresh();
+        return engine;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int index(Writer writer) {
+        if (writer.next == 0) {
+            writer.engine = new SearchEngine();
+        }
+        int id = writer.engine.index(documents.get(writer.next));
+        writer.next = (writer.next + 1) % documents.size();
+        if (writer.next % REFRESH == 0) {
+            writer.engine.refresh();
+        }
+        return id;
+    }
+}
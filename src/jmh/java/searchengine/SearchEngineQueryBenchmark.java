@@ -0,0 +1,67 @@
+package searchengine;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+// Measures queries against synthetic Zipf corpora: single words and groups of words drawn like a
+// query log, a very common word paired with a rare one, and words no document contains. Each
+// invocation uses the next of a fixed set of queries, so every result averages over that set
+// rather than repeating one query whose posting lists stay in the CPU caches. Throughput
+// gives ops/us (pass -tu s for ops/s) and SampleTime gives percentiles such as p99; the gradle jmh
+// task adds the GC profiler, whose gc.alloc.rate.norm is the bytes allocated per query.
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class SearchEngineQueryBenchmark {
+    // Number of distinct queries cycled through
+    private static final int QUERIES = 4096;
+
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    @Param({"single", "multi", "rareCommon", "miss"})
+    public String kind;
+
+    private SearchEngine engine;
+    private String[] queries;
+
+    @Setup
+    public void setup() {
+        engine = new SearchEngine();
+        engine.indexAll(SyntheticCorpus.documents(size));
+        engine.refresh();
+        queries = SyntheticCorpus.queries(kind, QUERIES);
+    }
+
+    // The query used by the next invocation on each thread.
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+    }
+
+    @Benchmark
+    public List<String> ranked(Cursor cursor) {
+        return engine.search(next(cursor), 10);
+    }
+
+    @Benchmark
+    public List<String> conjunctive(Cursor cursor) {
+        return engine.search(next(cursor));
+    }
+
+    @Benchmark
+    public List<Hit> hits(Cursor cursor) {
+        return engine.hits(next(cursor), 10);
+    }
+
+    private String next(Cursor cursor) {
+        String query = queries[cursor.next];
+        cursor.next = (cursor.next + 1) % queries.length;
+        return query;
+    }
+}
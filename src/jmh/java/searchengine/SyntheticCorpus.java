@@ -0,0 +1,109 @@
+package searchengine;
+
+import java.util.*;
+
+// Generates deterministic search engine corpora of any size for benchmarks. Words are made up from
+// a fixed set of syllables, one word per rank of a vocabulary, and each word of a document is drawn
+// with probability proportional to 1 / rank (Zipf's law), so a few short words are in nearly every
+// document and most words are rare, as in real text. Queries are drawn from the same distribution.
+class SyntheticCorpus {
+    private static final String[] SYLLABLES = {
+        "ba", "be", "bo", "ca", "ce", "co", "da", "de", "di", "fa", "fe", "ga", "go", "ha", "he",
+        "ka", "ki", "la", "le", "li", "lo", "ma", "me", "mi", "mo", "na", "ne", "no", "pa", "pe",
+        "ra", "re", "ri", "ro", "sa", "se", "si", "so", "ta", "te", "to", "va", "ve", "wa", "ya"
+    };
+    // Number of distinct words in the body of documents
+    static final int VOCABULARY = 100_000;
+    // Exponent of the Zipf distribution of word ranks
+    private static final double EXPONENT = 1.0;
+    // Shortest and longest document bodies, in words
+    private static final int MIN_WORDS = 20;
+    private static final int MAX_WORDS = 140;
+    // Words at or below this rank are common, and from RARE to VOCABULARY rare
+    private static final int COMMON = 10;
+    private static final int RARE = 10_000;
+    // Seed shared by every benchmark so that all of them see the same corpus
+    static final long SEED = 143;
+    // CDF[r] is the probability that a word's rank is at most r
+    private static final double[] CDF = cdf();
+
+    // Returns the given number of generated documents. Each has a title line and a body of MIN_WORDS
+    // to MAX_WORDS words, about 80 on average.
+    static List<String> documents(int size) {
+        Random random = new Random(SEED);
+        List<String> documents = new ArrayList<>(size);
+        StringBuilder document = new StringBuilder();
+        for (int i = 0; i < size; i += 1) {
+            document.setLength(0);
+            document.append("Document ").append(i).append('\n');
+            int words = MIN_WORDS + random.nextInt(MAX_WORDS - MIN_WORDS + 1);
+            for (int w = 0; w < words; w += 1) {
+                if (w > 0) {
+                    document.append(w % 12 == 0 ? '\n' : ' ');
+                }
+                document.append(word(rank(random)));
+            }
+            documents.add(document.toString());
+        }
+        return documents;
+    }
+
+    // Returns count queries of the given kind:
+    // - "single": one word drawn from the Zipf distribution, as in a query log
+    // - "multi": two or three words drawn from the Zipf distribution
+    // - "rareCommon": one of the COMMON most frequent words and one rare word
+    // - "miss": two words that no document contains, since no syllable contains a 'q'
+    static String[] queries(String kind, int count) {
+        Random random = new Random(SEED + 1);
+        String[] queries = new String[count];
+        for (int i = 0; i < count; i += 1) {
+            if (kind.equals("single")) {
+                queries[i] = word(rank(random));
+            } else if (kind.equals("multi")) {
+                int words = 2 + random.nextInt(2);
+                StringBuilder query = new StringBuilder(word(rank(random)));
+                for (int w = 1; w < words; w += 1) {
+                    query.append(' ').append(word(rank(random)));
+                }
+                queries[i] = query.toString();
+            } else if (kind.equals("rareCommon")) {
+                queries[i] = word(random.nextInt(COMMON)) + " "
+                             + word(RARE + random.nextInt(VOCABULARY - RARE));
+            } else if (kind.equals("miss")) {
+                queries[i] = word(rank(random)) + "q " + "q" + word(rank(random));
+            } else {
+                throw new IllegalArgumentException("unknown kind of query: " + kind);
+            }
+        }
+        return queries;
+    }
+
+    // Returns the word of the given rank, counting from 0. Ranks are written in bijective base 45
+    // with a syllable per digit, so every rank has its own word and frequent words are short.
+    static String word(int rank) {
+        StringBuilder word = new StringBuilder();
+        for (int r = rank; r >= 0; r = r / SYLLABLES.length - 1) {
+            word.append(SYLLABLES[r % SYLLABLES.length]);
+        }
+        return word.toString();
+    }
+
+    // Draws a word rank from the Zipf distribution by binary search of the CDF.
+    private static int rank(Random random) {
+        int rank = Arrays.binarySearch(CDF, random.nextDouble());
+        return rank >= 0 ? rank : Math.min(-rank - 1, VOCABULARY - 1);
+    }
+
+    private static double[] cdf() {
+        double[] cdf = new double[VOCABULARY];
+        double sum = 0;
+        for (int r = 0; r < VOCABULARY; r += 1) {
+            sum += 1 / Math.pow(r + 1, EXPONENT);
+            cdf[r] = sum;
+        }
+        for (int r = 0; r < VOCABULARY; r += 1) {
+            cdf[r] /= sum;
+        }
+        return cdf;
+    }
+}
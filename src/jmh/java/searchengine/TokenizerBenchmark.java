@@ -0,0 +1,112 @@
+package searchengine;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Measures splitting documents into normalized terms with Tokenizer and with the regexes it
+// replaced. The bytes counter reports UTF-8 input consumed, so bytes/s over 2^20 is the MB/s
+// figure. TokenizerTest checks that both produce the same terms.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenizerBenchmark {
+    @Param({"ascii", "unicode"})
+    public String text;
+
+    private List<String> documents;
+    private Tokenizer tokenizer;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(143);
+        documents = new ArrayList<>();
+        StringBuilder document = new StringBuilder();
+        for (int i = 0; i < 1_000; i += 1) {
+            document.setLength(0);
+            document.append("Title ").append(i).append("\n");
+            for (int j = 0; j < 200; j += 1) {
+                document.append(j % 12 == 0 ? "\n" : " ").append(word(random));
+            }
+            documents.add(document.toString());
+        }
+        tokenizer = new Tokenizer();
+    }
+
+    @Benchmark
+    public void tokenizer(Bytes bytes, Blackhole blackhole) {
+        String document = documents.get(bytes.next());
+        tokenizer.tokenize(document, blackhole::consume);
+        bytes.bytes += bytes.lengths[bytes.index];
+    }
+
+    @Benchmark
+    public void regex(Bytes bytes, Blackhole blackhole) {
+        String document = documents.get(bytes.next());
+        for (String term : regexTerms(document)) {
+            blackhole.consume(term);
+        }
+        bytes.bytes += bytes.lengths[bytes.index];
+    }
+
+    // Counts the UTF-8 bytes each thread has tokenized.
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+
+        private int[] lengths;
+        private int index = -1;
+
+        @Setup(Level.Iteration)
+        public void reset(TokenizerBenchmark benchmark) {
+            bytes = 0;
+            lengths = new int[benchmark.documents.size()];
+            for (int i = 0; i < lengths.length; i += 1) {
+                lengths[i] = benchmark.documents.get(i).getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+
+        // Returns the index of the next document to tokenize, cycling through all of them.
+        private int next() {
+            index = (index + 1) % lengths.length;
+            return index;
+        }
+    }
+
+    // Returns a word of prose, wrapped in punctuation now and then.
+    private String word(Random random) {
+        String[] words = text.equals("ascii")
+                         ? new String[] {"The", "of", "Seattle", "rain", "isn't", "U.S.", "2024"}
+                         : new String[] {"Café", "naïve", "ÉCOLE", "Straße", "Σοφία", "東京", "İzmir"};
+        String word = words[random.nextInt(words.length)];
+        switch (random.nextInt(8)) {
+            case 0:
+                return word + ",";
+            case 1:
+                return "(" + word + ")";
+            case 2:
+                return text.equals("ascii") ? "\"" + word + ".\"" : "«" + word + "»";
+            default:
+                return word;
+        }
+    }
+
+    // Splits text into terms the way SearchEngine did before Tokenizer.
+    private static List<String> regexTerms(String text) {
+        List<String> terms = new ArrayList<>();
+        for (String token : text.split("\\s+")) {
+            String term = token.toLowerCase().replaceAll("(^\\p{P}+\\s*)|(\\s*\\p{P}+$)", "");
+            if (!term.isEmpty()) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+}
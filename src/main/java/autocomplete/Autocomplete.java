@@ -1,30 +1,94 @@
 package autocomplete;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
 import java.io.*;
+import java.nio.file.*;
 
 public class Autocomplete {
-    // Comparator for prefix-finding that is dependent on Collections.binarySearch implementation
-    private static final Comparator<Term> BY_PREFIX = (term, prefix) -> {
-        int len = Math.min(term.query().length(), prefix.query().length());
-        return term.query().substring(0, len).compareToIgnoreCase(prefix.query());
-    };
     // Maximum number of matches to print
     private static final int MAX_MATCHES = 10;
-    // Corpus of terms sorted in lexicographic order by query
-    private final List<Term> terms;
-
-    public Autocomplete(String filename) throws FileNotFoundException {
-        terms = new ArrayList<>();
-        try (Scanner input = new Scanner(new File(filename))) {
-            while (input.hasNextLine()) {
-                String[] parts = input.nextLine().split("\t");
-                int weight = Integer.parseInt(parts[0]);
-                String query = parts[1];
-                terms.add(new Term(query, weight));
+    // Number of pending updates that triggers a background merge into the base index
+    private static final int MERGE_THRESHOLD = 10_000;
+    // Orders update keys exactly as the base index orders queries, then by case
+    private static final Comparator<String> BY_QUERY =
+        String.CASE_INSENSITIVE_ORDER.thenComparing(Comparator.naturalOrder());
+    // Number of prefixes whose top matches are remembered
+    private static final int CACHE_CAPACITY = 16_384;
+    // Marks a removed query in the pending updates
+    private static final Term REMOVED = new Term("", 0);
+    // Merges pending updates into new base indexes, one at a time
+    private static final ExecutorService MERGER = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "autocomplete-merger");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Kind of index built over the corpus, including by merges
+    private final IndexType type;
+    // Current base index and pending updates. Readers take whatever state is current and never
+    // lock; writers and merges replace it.
+    private volatile State state;
+    // Held shared by writers and exclusively while a merge freezes the pending updates
+    private final ReadWriteLock freeze = new ReentrantReadWriteLock();
+    // True while a merge is scheduled or running
+    private final AtomicBoolean merging = new AtomicBoolean();
+    // Top matches of recently queried folded prefixes
+    private final PrefixCache<Matches> results = new PrefixCache<>("results", CACHE_CAPACITY);
+    // Incremented by every update, so that a result computed across an update is not cached
+    private final AtomicLong version = new AtomicLong();
+
+    // The kinds of index an Autocomplete can be built with.
+    public enum IndexType {
+        // Binary search over a lexicographically sorted list of terms
+        SORTED,
+        // Best-first search over a compressed trie with cached subtree weights
+        TRIE
+    }
+
+    public Autocomplete(String filename) throws IOException {
+        this(filename, IndexType.SORTED);
+    }
+
+    // Constructs a new Autocomplete over the terms in the given TSV file, using the given index.
+    // Each line is read straight into the columns of a TermStore, so no Term is kept per line.
+    public Autocomplete(String filename, IndexType type) throws IOException {
+        TermStore.Builder builder = new TermStore.Builder();
+        try (BufferedReader input = Files.newBufferedReader(Paths.get(filename))) {
+            String line;
+            while ((line = input.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                int end = line.indexOf('\t', tab + 1);
+                int weight = Integer.parseInt(line, 0, tab, 10);
+                String query = line.substring(tab + 1, end < 0 ? line.length() : end);
+                builder.add(query, weight);
             }
         }
-        Collections.sort(terms);
+        this.type = type;
+        this.state = new State(builder.build(), type);
+    }
+
+    private Autocomplete(SortedTermIndex index) {
+        this.type = IndexType.SORTED;
+        this.state = new State(index.store(), index);
+    }
+
+    // Returns an Autocomplete over the snapshot file written by save. The snapshot is
+    // memory-mapped, so opening it takes about the same time regardless of corpus size.
+    public static Autocomplete open(String snapshot) throws IOException {
+        return new Autocomplete(SortedTermIndex.map(Paths.get(snapshot)));
+    }
+
+    // Saves this Autocomplete, including every update so far, as a snapshot file that can be
+    // reopened with open.
+    public void save(String snapshot) throws IOException {
+        if (type != IndexType.SORTED) {
+            throw new IllegalStateException("only a SORTED index can be saved as a snapshot");
+        }
+        merge();
+        ((SortedTermIndex) state.index).write(Paths.get(snapshot));
     }
 
     // Returns all terms that start with the given prefix, in descending order of weight.
@@ -40,41 +104,323 @@ public class Autocomplete {
         if (prefix.query().length() == 0) {
             return List.of();
         }
-        int index = Collections.binarySearch(terms, prefix, BY_PREFIX);
-        if (index < 0) {
-            return List.of();
+        State current = state;
+        if (current.isClean()) {
+            return current.index.allMatches(prefix.query());
+        }
+        List<Term> matches = current.updates(prefix.query());
+        for (Term term : current.index.allMatches(prefix.query())) {
+            if (current.update(term.query()) == null) {
+                matches.add(term);
+            }
         }
-        List<Term> matches = new ArrayList<>(terms.subList(
-            lower(terms.subList(0, index + 1), prefix),
-            upper(terms.subList(index, terms.size()), prefix, index) + 1
-            ));
         Collections.sort(matches, Term::compareToByReverseWeight);
         return matches;
     }
 
-    private static int lower(List<Term> problem, Term prefix) {
-        int index = Collections.binarySearch(problem, prefix, BY_PREFIX);
-        if (index < 0) {
-            return index;
+    // Returns the k heaviest terms that start with the given prefix, in descending order of
+    // weight.
+    public List<Term> topMatches(String prefix, int k) {
+        if (prefix == null) {
+            throw new IllegalArgumentException("prefix cannot be null");
         }
-        int next = lower(problem.subList(0, index), prefix);
-        if (next < 0) {
-            return index;
-        } else {
-            return next;
+        if (k < 0) {
+            throw new IllegalArgumentException("k cannot be negative");
+        }
+        if (prefix.length() == 0) {
+            return List.of();
+        }
+        String key = TermIndex.fold(prefix);
+        long before = version.get();
+        Matches cached = results.get(key);
+        if (cached == null || (cached.terms.size() < k && !cached.complete)) {
+            cached = search(state, prefix, k);
+            results.put(key, cached);
+            if (version.get() != before) {
+                results.remove(key);
+            }
+        }
+        return new ArrayList<>(cached.terms.subList(0, Math.min(k, cached.terms.size())));
+    }
+
+    // Returns the k heaviest terms that have a prefix within maxEdits insertions, deletions or
+    // substitutions of the given prefix, ignoring case, in descending order of weight. maxEdits
+    // must be between 0 and 2.
+    public List<Term> fuzzyMatches(String prefix, int maxEdits, int k) {
+        if (prefix == null) {
+            throw new IllegalArgumentException("prefix cannot be null");
+        }
+        if (k < 0) {
+            throw new IllegalArgumentException("k cannot be negative");
+        }
+        FuzzyPrefix automaton = new FuzzyPrefix(prefix, maxEdits);
+        if (prefix.length() == 0) {
+            return List.of();
+        }
+        State current = state;
+        List<Term> updates = new ArrayList<>();
+        for (Term term : current.updates()) {
+            if (automaton.matches(term.query())) {
+                updates.add(term);
+            }
+        }
+        return merge(current, current.index.fuzzyByWeight(prefix, maxEdits), updates, k);
+    }
+
+    // Returns statistics for the caches that serve topMatches.
+    public List<PrefixCache.Stats> cacheStats() {
+        List<PrefixCache.Stats> stats = new ArrayList<>();
+        stats.add(results.stats());
+        if (state.index instanceof SortedTermIndex) {
+            stats.add(((SortedTermIndex) state.index).rangeCacheStats());
+        }
+        return stats;
+    }
+
+    // Removes whatever the caches hold for the given prefix, so that the next topMatches for it
+    // searches the index. Used by benchmarks to measure cache misses.
+    void evict(String prefix) {
+        results.remove(TermIndex.fold(prefix));
+        if (state.index instanceof SortedTermIndex) {
+            ((SortedTermIndex) state.index).evict(prefix);
         }
     }
 
-    private static int upper(List<Term> problem, Term prefix, int offset) {
-        int index = Collections.binarySearch(problem, prefix, BY_PREFIX);
-        if (index < 0) {
-            return index;
+    // Adds the given query with the given weight, or replaces the weight of every term with
+    // exactly this query. The change is visible to queries as soon as this method returns.
+    public void upsert(String query, int weight) {
+        if (query == null) {
+            throw new IllegalArgumentException("query cannot be null");
         }
-        int next = upper(problem.subList(index + 1, problem.size()), prefix, offset + index + 1);
-        if (next < 0) {
-            return offset + index;
+        update(query, new Term(query, weight));
+    }
+
+    // Removes every term with exactly the given query. The change is visible to queries as soon
+    // as this method returns.
+    public void remove(String query) {
+        if (query == null) {
+            throw new IllegalArgumentException("query cannot be null");
+        }
+        update(query, REMOVED);
+    }
+
+    // Returns the number of terms in the base index, not counting updates that have not been
+    // merged into it yet.
+    public int size() {
+        return state.index.size();
+    }
+
+    // Returns the k heaviest terms in the given state that start with the given prefix.
+    private static Matches search(State current, String prefix, int k) {
+        List<Term> matches;
+        if (current.isClean()) {
+            matches = current.index.topMatches(prefix, k);
         } else {
-            return next;
+            matches = merge(current, current.index.byWeight(prefix), current.updates(prefix), k);
+        }
+        return new Matches(matches, matches.size() < k);
+    }
+
+    // Returns the k heaviest terms among the updated terms and the base terms they do not
+    // replace. The base iterator and the updates are both in descending order of weight.
+    private static List<Term> merge(State current, Iterator<Term> base, List<Term> updates,
+                                    int k) {
+        Term next = nextLive(base, current);
+        int i = 0;
+        List<Term> matches = new ArrayList<>(k);
+        while (matches.size() < k && (next != null || i < updates.size())) {
+            if (next == null || (i < updates.size() && updates.get(i).weight() >= next.weight())) {
+                matches.add(updates.get(i));
+                i += 1;
+            } else {
+                matches.add(next);
+                next = nextLive(base, current);
+            }
+        }
+        return matches;
+    }
+
+    // Records an update and schedules a merge once enough updates are pending.
+    private void update(String query, Term term) {
+        int pending;
+        freeze.readLock().lock();
+        try {
+            ConcurrentNavigableMap<String, Term> active = state.active;
+            active.put(query, term);
+            pending = active.size();
+        } finally {
+            freeze.readLock().unlock();
+        }
+        // Only the cached results for prefixes of the query can have changed
+        version.incrementAndGet();
+        String key = TermIndex.fold(query);
+        for (int length = 1; length <= key.length(); length += 1) {
+            results.remove(key.substring(0, length));
+        }
+        if (pending >= MERGE_THRESHOLD && merging.compareAndSet(false, true)) {
+            MERGER.execute(() -> {
+                try {
+                    merge();
+                } finally {
+                    merging.set(false);
+                }
+            });
+        }
+    }
+
+    // Folds every pending update into a new base index. Updates that arrive meanwhile go into a
+    // fresh delta and stay visible throughout, and readers switch to the new base atomically.
+    private synchronized void merge() {
+        State frozen;
+        freeze.writeLock().lock();
+        try {
+            frozen = new State(state.store, state.index, state.active, newDelta());
+            state = frozen;
+        } finally {
+            freeze.writeLock().unlock();
+        }
+        if (frozen.frozen.isEmpty()) {
+            return;
+        }
+        TermStore.Builder builder = new TermStore.Builder();
+        for (int i = 0; i < frozen.store.size(); i += 1) {
+            String query = frozen.store.query(i);
+            if (!frozen.frozen.containsKey(query)) {
+                builder.add(query, frozen.store.weight(i));
+            }
+        }
+        for (Term term : frozen.frozen.values()) {
+            if (term != REMOVED) {
+                builder.add(term.query(), term.weight());
+            }
+        }
+        State merged = new State(builder.build(), type);
+        freeze.writeLock().lock();
+        try {
+            state = new State(merged.store, merged.index, Collections.emptyNavigableMap(),
+                              state.active);
+        } finally {
+            freeze.writeLock().unlock();
+        }
+    }
+
+    // Returns the next term from the base iterator that no pending update replaces, or null.
+    private static Term nextLive(Iterator<Term> base, State state) {
+        while (base.hasNext()) {
+            Term term = base.next();
+            if (state.update(term.query()) == null) {
+                return term;
+            }
+        }
+        return null;
+    }
+
+    // Returns a new, empty map of pending updates.
+    private static ConcurrentNavigableMap<String, Term> newDelta() {
+        return new ConcurrentSkipListMap<>(BY_QUERY);
+    }
+
+    // The heaviest matches of a prefix, as cached for topMatches.
+    private static class Matches {
+        // Matches in descending order of weight
+        private final List<Term> terms;
+        // True if terms holds every match, so any k can be answered from it
+        private final boolean complete;
+
+        private Matches(List<Term> terms, boolean complete) {
+            this.terms = terms;
+            this.complete = complete;
+        }
+    }
+
+    // A base index together with the updates not yet merged into it. Updates map each query to
+    // its new Term, or to REMOVED.
+    private static class State {
+        // Columns of the base index
+        private final TermStore store;
+        // Immutable index over store
+        private final TermIndex index;
+        // Updates being merged into the next base index; never modified
+        private final NavigableMap<String, Term> frozen;
+        // Updates accepting writes
+        private final ConcurrentNavigableMap<String, Term> active;
+
+        private State(TermStore store, IndexType type) {
+            this(store, type == IndexType.TRIE ? new TrieTermIndex(store)
+                                               : new SortedTermIndex(store));
+        }
+
+        private State(TermStore store, TermIndex index) {
+            this(store, index, Collections.emptyNavigableMap(), newDelta());
+        }
+
+        private State(TermStore store, TermIndex index, NavigableMap<String, Term> frozen,
+                      ConcurrentNavigableMap<String, Term> active) {
+            this.store = store;
+            this.index = index;
+            this.frozen = frozen;
+            this.active = active;
+        }
+
+        // Returns true if there are no pending updates.
+        private boolean isClean() {
+            return frozen.isEmpty() && active.isEmpty();
+        }
+
+        // Returns the pending update for exactly the given query, or null if there is none.
+        private Term update(String query) {
+            Term term = active.get(query);
+            return term != null ? term : frozen.get(query);
+        }
+
+        // Returns the updated terms, excluding removals, that start with the given prefix, in
+        // descending order of weight.
+        private List<Term> updates(String prefix) {
+            return live(startingWith(active, prefix), startingWith(frozen, prefix));
+        }
+
+        // Returns every updated term, excluding removals, in descending order of weight.
+        private List<Term> updates() {
+            return live(active.entrySet(), frozen.entrySet());
+        }
+
+        // Returns the terms of the given active and frozen updates, excluding removals and frozen
+        // updates superseded by active ones, in descending order of weight.
+        private List<Term> live(Collection<Map.Entry<String, Term>> activeUpdates,
+                                Collection<Map.Entry<String, Term>> frozenUpdates) {
+            List<Term> result = new ArrayList<>();
+            for (Map.Entry<String, Term> entry : activeUpdates) {
+                if (entry.getValue() != REMOVED) {
+                    result.add(entry.getValue());
+                }
+            }
+            for (Map.Entry<String, Term> entry : frozenUpdates) {
+                if (entry.getValue() != REMOVED && !active.containsKey(entry.getKey())) {
+                    result.add(entry.getValue());
+                }
+            }
+            result.sort((a, b) -> Integer.compare(b.weight(), a.weight()));
+            return result;
+        }
+
+        // Returns the updates whose queries start with the given prefix, ignoring case.
+        private static List<Map.Entry<String, Term>> startingWith(
+                NavigableMap<String, Term> updates, String prefix) {
+            // Queries equal to the prefix ignoring case may sort just before it
+            String from = prefix;
+            String key = updates.lowerKey(prefix);
+            while (key != null && key.equalsIgnoreCase(prefix)) {
+                from = key;
+                key = updates.lowerKey(key);
+            }
+            List<Map.Entry<String, Term>> result = new ArrayList<>();
+            for (Map.Entry<String, Term> entry : updates.tailMap(from, true).entrySet()) {
+                if (!entry.getKey().regionMatches(true, 0, prefix, 0, prefix.length())) {
+                    break;
+                }
+                result.add(entry);
+            }
+            return result;
         }
     }
 
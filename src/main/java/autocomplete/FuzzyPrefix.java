@@ -0,0 +1,69 @@
+package autocomplete;
+
+// A Levenshtein automaton for "some prefix of the query is within maxEdits edits of the typed
+// prefix". Its state is one row of the edit-distance table: row[j] is the distance between the
+// characters consumed so far and the first j characters of the folded prefix. Index traversals
+// feed it one folded character per trie edge, stop descending once the state is dead, and take
+// the whole subtree once the state accepts.
+class FuzzyPrefix {
+    // Largest supported number of edits; the number of live states grows exponentially with it
+    static final int MAX_EDITS = 2;
+
+    // Folded typed prefix
+    private final String prefix;
+    // Maximum number of insertions, deletions and substitutions allowed
+    private final int maxEdits;
+
+    // Constructs a new automaton for the given prefix and maximum number of edits.
+    FuzzyPrefix(String prefix, int maxEdits) {
+        if (maxEdits < 0 || maxEdits > MAX_EDITS) {
+            throw new IllegalArgumentException("maxEdits must be between 0 and " + MAX_EDITS);
+        }
+        this.prefix = TermIndex.fold(prefix);
+        this.maxEdits = maxEdits;
+    }
+
+    // Returns the state before any character has been consumed.
+    int[] start() {
+        int[] row = new int[prefix.length() + 1];
+        for (int j = 0; j < row.length; j += 1) {
+            row[j] = j;
+        }
+        return row;
+    }
+
+    // Returns the state after consuming the folded character c, or null if no extension of the
+    // characters consumed so far can be accepted.
+    int[] step(int[] row, char c) {
+        int[] next = new int[row.length];
+        next[0] = row[0] + 1;
+        int min = next[0];
+        for (int j = 1; j < row.length; j += 1) {
+            int substitute = row[j - 1] + (prefix.charAt(j - 1) == c ? 0 : 1);
+            next[j] = Math.min(substitute, Math.min(row[j], next[j - 1]) + 1);
+            min = Math.min(min, next[j]);
+        }
+        return min > maxEdits ? null : next;
+    }
+
+    // Returns true if the characters consumed so far are within maxEdits of the whole prefix,
+    // so that every query starting with them matches.
+    boolean accepts(int[] row) {
+        return row[row.length - 1] <= maxEdits;
+    }
+
+    // Returns true if some prefix of the given query is within maxEdits of the typed prefix.
+    boolean matches(String query) {
+        int[] row = start();
+        for (int i = 0; !accepts(row); i += 1) {
+            if (i == query.length()) {
+                return false;
+            }
+            row = step(row, TermIndex.fold(query.charAt(i)));
+            if (row == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,130 @@
+package autocomplete;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// A bounded, thread-safe cache keyed by normalized prefix. Keys are spread over independently
+// locked stripes, each evicting its least recently used entry when full, so concurrent lookups
+// rarely contend. Hits, misses and evictions are counted so the capacity can be tuned.
+public class PrefixCache<V> {
+    // Number of independently locked stripes
+    private static final int STRIPES = 16;
+
+    // Name reported in statistics
+    private final String name;
+    // Maximum number of entries across all stripes
+    private final int capacity;
+    // Access-ordered maps, each holding at most capacity / STRIPES entries
+    private final List<LinkedHashMap<String, V>> stripes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // Constructs a new, empty cache with the given name and capacity.
+    PrefixCache(String name, int capacity) {
+        if (capacity < STRIPES) {
+            throw new IllegalArgumentException("capacity must be at least " + STRIPES);
+        }
+        this.name = name;
+        this.capacity = capacity;
+        int perStripe = capacity / STRIPES;
+        stripes = new ArrayList<>(STRIPES);
+        for (int i = 0; i < STRIPES; i += 1) {
+            stripes.add(new LinkedHashMap<>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                    if (size() > perStripe) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            });
+        }
+    }
+
+    // Returns the value cached for the key, or null if there is none. Counts a hit or a miss.
+    V get(String key) {
+        V value = peek(key);
+        if (value != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return value;
+    }
+
+    // Returns the value cached for the key, or null if there is none, without counting it.
+    V peek(String key) {
+        LinkedHashMap<String, V> stripe = stripe(key);
+        synchronized (stripe) {
+            return stripe.get(key);
+        }
+    }
+
+    // Caches the value for the key, evicting the least recently used entry of its stripe if full.
+    void put(String key, V value) {
+        LinkedHashMap<String, V> stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.put(key, value);
+        }
+    }
+
+    // Removes any value cached for the key.
+    void remove(String key) {
+        LinkedHashMap<String, V> stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.remove(key);
+        }
+    }
+
+    // Returns a snapshot of this cache's statistics.
+    public Stats stats() {
+        int size = 0;
+        for (LinkedHashMap<String, V> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return new Stats(name, capacity, size, hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    // Returns the stripe responsible for the key.
+    private LinkedHashMap<String, V> stripe(String key) {
+        int hash = key.hashCode();
+        return stripes.get((hash ^ (hash >>> 16)) & (STRIPES - 1));
+    }
+
+    // Counters describing a cache at one point in time.
+    public static class Stats {
+        public final String name;
+        public final int capacity;
+        public final int size;
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+
+        private Stats(String name, int capacity, int size, long hits, long misses,
+                      long evictions) {
+            this.name = name;
+            this.capacity = capacity;
+            this.size = size;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        // Returns the fraction of lookups that were hits, or 0 if there were none.
+        public double hitRatio() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : hits / (double) lookups;
+        }
+
+        // Returns these statistics as a JSON object.
+        public String toString() {
+            return String.format(Locale.ROOT, "{\"name\":\"%s\",\"capacity\":%d,\"size\":%d,"
+                                 + "\"hits\":%d,\"misses\":%d,\"evictions\":%d,"
+                                 + "\"hitRatio\":%.4f}",
+                                 name, capacity, size, hits, misses, evictions, hitRatio());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package autocomplete;
+
+import java.nio.IntBuffer;
+
+// A segment tree over a fixed column of weights that answers "which index in [lo, hi) has the
+// largest weight?" in O(log n) time. Ties are broken in favor of the smaller index.
+class RangeMaximum {
+    // Number of weights covered by this tree
+    private final int size;
+    // Weights indexed by position
+    private final IntBuffer weights;
+    // tree[size + i] == i for the leaves; every internal node holds the index of its maximum child
+    private final IntBuffer tree;
+
+    // Constructs a new RangeMaximum over the given weights.
+    RangeMaximum(IntBuffer weights) {
+        this.size = weights.limit();
+        this.weights = weights;
+        int[] tree = new int[2 * size];
+        for (int i = 0; i < size; i += 1) {
+            tree[size + i] = i;
+        }
+        for (int node = size - 1; node > 0; node -= 1) {
+            tree[node] = best(tree[2 * node], tree[2 * node + 1]);
+        }
+        this.tree = IntBuffer.wrap(tree);
+    }
+
+    // Constructs a RangeMaximum over the given weights from a tree previously returned by tree().
+    RangeMaximum(IntBuffer weights, IntBuffer tree) {
+        if (tree.limit() != 2 * weights.limit()) {
+            throw new IllegalArgumentException("tree must have two entries per weight");
+        }
+        this.size = weights.limit();
+        this.weights = weights;
+        this.tree = tree;
+    }
+
+    // Returns the index of the largest weight in [lo, hi), or -1 if the range is empty.
+    int argmax(int lo, int hi) {
+        int result = -1;
+        for (lo += size, hi += size; lo < hi; lo >>= 1, hi >>= 1) {
+            if ((lo & 1) == 1) {
+                result = best(result, tree.get(lo++));
+            }
+            if ((hi & 1) == 1) {
+                result = best(result, tree.get(--hi));
+            }
+        }
+        return result;
+    }
+
+    // Returns the weight at the given index.
+    int weight(int index) {
+        return weights.get(index);
+    }
+
+    // Returns the tree column, so that it can be saved alongside the weights.
+    IntBuffer tree() {
+        return tree.duplicate();
+    }
+
+    // Returns whichever of the two indices holds the larger weight, treating -1 as absent.
+    private int best(int a, int b) {
+        if (a < 0) {
+            return b;
+        } else if (b < 0) {
+            return a;
+        }
+        int weightA = weights.get(a);
+        int weightB = weights.get(b);
+        if (weightA != weightB) {
+            return weightA > weightB ? a : b;
+        }
+        return Math.min(a, b);
+    }
+}
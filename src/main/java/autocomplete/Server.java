@@ -1,6 +1,7 @@
 package autocomplete;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
 import java.net.*;
 import java.nio.file.*;
@@ -10,6 +11,19 @@ import com.sun.net.httpserver.*;
 public class Server {
     // Port number used to connect to this server
     private static final int PORT = Integer.parseInt(System.getenv().getOrDefault("PORT", "8000"));
+    // Index used to answer prefix queries: "sorted" or "trie"
+    private static final Autocomplete.IndexType INDEX = Autocomplete.IndexType.valueOf(
+        System.getenv().getOrDefault("INDEX", "sorted").toUpperCase()
+        );
+    // Threads that handle requests: "virtual" for one virtual thread per request, or "fixed" for
+    // a bounded pool of THREADS platform threads
+    private static final String EXECUTOR = System.getenv().getOrDefault("EXECUTOR", "virtual");
+    // Number of platform threads in a fixed pool
+    private static final int THREADS = Integer.parseInt(System.getenv().getOrDefault(
+        "THREADS", String.valueOf(Runtime.getRuntime().availableProcessors())
+        ));
+    // Clients allowed to call /upsert and /remove: "local" for this machine only, "any", or "none"
+    private static final String WRITES = System.getenv().getOrDefault("WRITES", "local");
     // Maximum number of matches returned in response
     private static final int MAX_MATCHES = 5;
     // JSON endpoint structure
@@ -17,27 +31,122 @@ public class Server {
 
     public static void main(String[] args) throws FileNotFoundException, IOException {
         if (args.length != 1) {
-            throw new IllegalArgumentException("java Server [tsv file]");
+            throw new IllegalArgumentException("java Server [tsv file | snapshot file]");
         }
         String filename = args[0];
-        Autocomplete autocomplete = new Autocomplete(filename);
+        long start = System.nanoTime();
+        Autocomplete autocomplete;
+        String type;
+        if (filename.endsWith(".snapshot")) {
+            autocomplete = Autocomplete.open(filename);
+            type = "mapped snapshot";
+        } else {
+            autocomplete = new Autocomplete(filename, INDEX);
+            type = INDEX + " index";
+        }
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        System.out.printf("Loaded %d terms into %s in %d ms, %d MB heap in use%n",
+                          autocomplete.size(), type, (System.nanoTime() - start) / 1_000_000,
+                          (runtime.totalMemory() - runtime.freeMemory()) >> 20);
+        // Without TCP_NODELAY every keep-alive response waits ~40 ms on the client's delayed ACK
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        if (!WRITES.equals("local") && !WRITES.equals("any") && !WRITES.equals("none")) {
+            throw new IllegalArgumentException("WRITES must be local, any or none");
+        }
         HttpServer server = HttpServer.create(new InetSocketAddress(PORT), 0);
         server.createContext("/", (HttpExchange t) -> {
             String html = Files.readString(Paths.get("index.html"));
             send(t, "text/html; charset=utf-8", html);
         });
         server.createContext("/query", (HttpExchange t) -> {
-            String s = parse("s", t.getRequestURI().getQuery().split("&"));
-            List<Term> matches = autocomplete.allMatches(s);
-            if (matches.size() > MAX_MATCHES) {
-                matches = matches.subList(0, MAX_MATCHES);
+            String[] params = params(t);
+            String s = parse("s", params);
+            String edits = parse("edits", params);
+            int maxEdits = edits.matches("[0-9]{1,2}")
+                           ? Math.min(Integer.parseInt(edits), FuzzyPrefix.MAX_EDITS) : 0;
+            List<Term> matches;
+            if (maxEdits == 0) {
+                matches = autocomplete.topMatches(s, MAX_MATCHES);
+            } else {
+                matches = autocomplete.fuzzyMatches(s, maxEdits, MAX_MATCHES);
             }
             send(t, "application/json", String.format(QUERY_TEMPLATE, json(matches)));
         });
-        server.setExecutor(null);
+        server.createContext("/upsert", (HttpExchange t) -> {
+            String[] params = params(t);
+            String s = parse("s", params);
+            String w = parse("w", params);
+            if (!canWrite(t)) {
+                send(t, 403, "application/json", "{\"error\":\"writes are not allowed\"}");
+            } else if (s.isEmpty() || !w.matches("[0-9]{1,9}")) {
+                send(t, 400, "application/json",
+                     "{\"error\":\"s must be a query and w a weight from 0 to 999999999\"}");
+            } else {
+                autocomplete.upsert(s, Integer.parseInt(w));
+                send(t, "application/json", "{}");
+            }
+        });
+        server.createContext("/remove", (HttpExchange t) -> {
+            String s = parse("s", params(t));
+            if (!canWrite(t)) {
+                send(t, 403, "application/json", "{\"error\":\"writes are not allowed\"}");
+            } else if (s.isEmpty()) {
+                send(t, 400, "application/json", "{\"error\":\"s must be a query\"}");
+            } else {
+                autocomplete.remove(s);
+                send(t, "application/json", "{}");
+            }
+        });
+        server.createContext("/stats", (HttpExchange t) -> {
+            StringBuilder caches = new StringBuilder();
+            for (PrefixCache.Stats stats : autocomplete.cacheStats()) {
+                if (caches.length() > 0) {
+                    caches.append(',');
+                }
+                caches.append(stats);
+            }
+            send(t, "application/json", "{\"caches\":[" + caches + "]}");
+        });
+        server.setExecutor(executor());
         server.start();
     }
 
+    // Returns the executor selected by EXECUTOR. Autocomplete reads never lock, so requests scale
+    // with the number of threads serving them.
+    private static ExecutorService executor() {
+        if (EXECUTOR.equals("fixed")) {
+            // Once the queue is full the dispatcher thread runs requests itself, slowing accepts
+            return new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.SECONDS,
+                                          new ArrayBlockingQueue<>(64 * THREADS),
+                                          new ThreadPoolExecutor.CallerRunsPolicy());
+        } else if (!EXECUTOR.equals("virtual")) {
+            throw new IllegalArgumentException("EXECUTOR must be virtual or fixed");
+        }
+        try {
+            // Virtual threads need Java 21; look them up so the server still runs on older JVMs
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                                                    .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads are unavailable, using a cached thread pool");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    // Returns the parameters of the request's query string, or none if it has no query string.
+    private static String[] params(HttpExchange t) {
+        String query = t.getRequestURI().getQuery();
+        return query == null ? new String[0] : query.split("&");
+    }
+
+    // Returns true if WRITES lets the client of the request change the corpus.
+    private static boolean canWrite(HttpExchange t) {
+        return WRITES.equals("any")
+               || WRITES.equals("local") && t.getRemoteAddress().getAddress().isLoopbackAddress();
+    }
+
     private static String parse(String key, String... params) {
         for (String param : params) {
             String[] pair = param.split("=");
@@ -50,9 +159,14 @@ public class Server {
 
     private static void send(HttpExchange t, String contentType, String data)
             throws IOException, UnsupportedEncodingException {
+        send(t, 200, contentType, data);
+    }
+
+    private static void send(HttpExchange t, int status, String contentType, String data)
+            throws IOException, UnsupportedEncodingException {
         t.getResponseHeaders().set("Content-Type", contentType);
         byte[] response = data.getBytes("UTF-8");
-        t.sendResponseHeaders(200, response.length);
+        t.sendResponseHeaders(status, response.length);
         try (OutputStream os = t.getResponseBody()) {
             os.write(response);
         }
@@ -0,0 +1,15 @@
+package autocomplete;
+
+import java.io.*;
+
+// Compiles a TSV corpus into a snapshot file that Server can memory-map on startup.
+public class SnapshotCompiler {
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("java SnapshotCompiler [tsv file] [snapshot file]");
+        }
+        Autocomplete autocomplete = new Autocomplete(args[0]);
+        autocomplete.save(args[1]);
+        System.out.println("Wrote " + autocomplete.size() + " terms to " + args[1]);
+    }
+}
@@ -0,0 +1,299 @@
+package autocomplete;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+// A TermIndex that binary searches a lexicographically sorted TermStore. The index can be saved
+// as a snapshot file and later memory-mapped, so reopening it does no parsing or sorting.
+class SortedTermIndex implements TermIndex {
+    // Identifies a snapshot file ("ACS1")
+    private static final int MAGIC = 0x41435331;
+    // Size of the snapshot header: magic, number of terms, and size of the query pool
+    private static final int HEADER_BYTES = 3 * Integer.BYTES;
+    // Number of prefix ranges remembered
+    private static final int RANGE_CACHE_CAPACITY = 16_384;
+
+    // Corpus of terms sorted in lexicographic order by query
+    private final TermStore store;
+    // Range-maximum structure over the weights of terms, in the same lexicographic order
+    private final RangeMaximum byWeight;
+    // Packed range of each recently searched folded prefix. The index never changes, so entries
+    // never go stale.
+    private final PrefixCache<Long> ranges = new PrefixCache<>("ranges", RANGE_CACHE_CAPACITY);
+
+    // Constructs a new index over the given terms, which must be sorted in lexicographic order.
+    SortedTermIndex(List<Term> terms) {
+        this(TermStore.of(terms));
+    }
+
+    // Constructs a new index over the given store.
+    SortedTermIndex(TermStore store) {
+        this(store, new RangeMaximum(store.weights()));
+    }
+
+    private SortedTermIndex(TermStore store, RangeMaximum byWeight) {
+        this.store = store;
+        this.byWeight = byWeight;
+    }
+
+    public List<Term> allMatches(String prefix) {
+        long range = cachedRange(prefix);
+        List<Term> matches = new ArrayList<>(hi(range) - lo(range));
+        for (int i = lo(range); i < hi(range); i += 1) {
+            matches.add(store.term(i));
+        }
+        Collections.sort(matches, Term::compareToByReverseWeight);
+        return matches;
+    }
+
+    // Each term returned expands at most two subranges, so the cost of taking the first k terms
+    // does not depend on how many terms share the prefix.
+    public Iterator<Term> byWeight(String prefix) {
+        long range = cachedRange(prefix);
+        PriorityQueue<int[]> candidates = candidates();
+        addCandidate(candidates, lo(range), hi(range));
+        return heaviestFirst(candidates);
+    }
+
+    // Treats the sorted queries as an implicit trie: the queries below a node form a range, and
+    // its children split that range by the next character. Each accepted node contributes its
+    // whole range.
+    public Iterator<Term> fuzzyByWeight(String prefix, int maxEdits) {
+        FuzzyPrefix automaton = new FuzzyPrefix(prefix, maxEdits);
+        PriorityQueue<int[]> candidates = candidates();
+        collectFuzzy(automaton, automaton.start(), 0, store.size(), 0, candidates);
+        return heaviestFirst(candidates);
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    // Returns the store this index searches.
+    TermStore store() {
+        return store;
+    }
+
+    // Returns statistics for the cache of prefix ranges.
+    PrefixCache.Stats rangeCacheStats() {
+        return ranges.stats();
+    }
+
+    // Removes any cached range of the given prefix.
+    void evict(String prefix) {
+        ranges.remove(TermIndex.fold(prefix));
+    }
+
+    // Returns the range [lo, hi) of terms that start with the given prefix, packed as by
+    // range(String). On a cache miss, only the cached range of the longest cached shorter prefix
+    // is searched, so each keystroke narrows the range found for the previous one.
+    long cachedRange(String prefix) {
+        String key = TermIndex.fold(prefix);
+        Long cached = ranges.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        int lo = 0;
+        int hi = store.size();
+        for (int length = key.length() - 1; length > 0; length -= 1) {
+            Long parent = ranges.peek(key.substring(0, length));
+            if (parent != null) {
+                lo = lo(parent);
+                hi = hi(parent);
+                break;
+            }
+        }
+        long range = range(prefix, lo, hi);
+        ranges.put(key, range);
+        return range;
+    }
+
+    // Returns the range [lo, hi) of terms that start with the given prefix, packed into a long
+    // as (lo << 32) | hi. The range is empty if no term starts with the prefix. Never allocates.
+    long range(String prefix) {
+        return range(prefix, 0, store.size());
+    }
+
+    // Returns the range of terms that start with the given prefix, packed as by range(String),
+    // searching only within [from, to), which must contain every such term.
+    long range(String prefix, int from, int to) {
+        // Lower bound: the first query whose leading characters are not less than the prefix
+        int lo = from;
+        int hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (store.comparePrefix(mid, prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int start = lo;
+        // Upper bound: the first query whose leading characters are greater than the prefix
+        hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (store.comparePrefix(mid, prefix) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return ((long) start << 32) | lo;
+    }
+
+    // Returns an empty queue of candidate subranges {lo, hi, argmax}, heaviest argmax first.
+    private PriorityQueue<int[]> candidates() {
+        return new PriorityQueue<>((a, b) -> {
+            int cmp = Integer.compare(byWeight.weight(b[2]), byWeight.weight(a[2]));
+            return cmp != 0 ? cmp : Integer.compare(a[2], b[2]);
+        });
+    }
+
+    // Returns an iterator that repeatedly removes the heaviest candidate, returns its heaviest
+    // term, and adds the subranges on either side of that term. Each term returned expands at
+    // most two subranges, so the cost of taking the first k terms does not depend on how many
+    // terms the candidates cover.
+    private Iterator<Term> heaviestFirst(PriorityQueue<int[]> candidates) {
+        return new Iterator<Term>() {
+            public boolean hasNext() {
+                return !candidates.isEmpty();
+            }
+
+            public Term next() {
+                if (candidates.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                int[] best = candidates.remove();
+                addCandidate(candidates, best[0], best[2]);
+                addCandidate(candidates, best[2] + 1, best[1]);
+                return store.term(best[2]);
+            }
+        };
+    }
+
+    // Adds to the candidates every maximal subrange of [lo, hi) that the automaton accepts, given
+    // that the queries in [lo, hi) share their first depth characters and row is the state after
+    // consuming them.
+    private void collectFuzzy(FuzzyPrefix automaton, int[] row, int lo, int hi, int depth,
+                              PriorityQueue<int[]> candidates) {
+        if (automaton.accepts(row)) {
+            addCandidate(candidates, lo, hi);
+            return;
+        }
+        // Queries that end at this depth sort first and cannot be extended
+        lo = firstAbove(lo, hi, depth, -1);
+        while (lo < hi) {
+            char c = (char) store.foldedCharAt(lo, depth);
+            int end = firstAbove(lo + 1, hi, depth, c);
+            int[] next = automaton.step(row, c);
+            if (next != null) {
+                collectFuzzy(automaton, next, lo, end, depth + 1, candidates);
+            }
+            lo = end;
+        }
+    }
+
+    // Returns the first index in [lo, hi) whose folded char at depth is greater than c, or hi if
+    // there is none. The range must be sorted by that char.
+    private int firstAbove(int lo, int hi, int depth, int c) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (store.foldedCharAt(mid, depth) <= c) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Adds the subrange [lo, hi) to the candidates unless it is empty.
+    private void addCandidate(PriorityQueue<int[]> candidates, int lo, int hi) {
+        if (lo < hi) {
+            candidates.add(new int[]{lo, hi, byWeight.argmax(lo, hi)});
+        }
+    }
+
+    // Returns the start of a range packed by range(String).
+    static int lo(long range) {
+        return (int) (range >>> 32);
+    }
+
+    // Returns the end of a range packed by range(String).
+    static int hi(long range) {
+        return (int) range;
+    }
+
+    // Writes this index to the given snapshot file. The file holds a header followed by the
+    // weights, offsets, range-maximum tree and query pool, all little-endian.
+    void write(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING,
+                                                    StandardOpenOption.WRITE)) {
+            ByteBuffer pool = store.pool();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(store.size()).putInt(pool.remaining()).flip();
+            writeFully(channel, header);
+            writeFully(channel, encode(store.weights()));
+            writeFully(channel, encode(store.offsets()));
+            writeFully(channel, encode(byWeight.tree()));
+            writeFully(channel, pool);
+        }
+    }
+
+    // Returns the index saved in the given snapshot file. The columns are memory-mapped rather
+    // than read, so opening is independent of corpus size and pages are shared between processes
+    // that map the same file.
+    static SortedTermIndex map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException(path + " is not an autocomplete snapshot");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES)
+                                       .order(ByteOrder.LITTLE_ENDIAN);
+            int size = header.getInt(Integer.BYTES);
+            int poolBytes = header.getInt(2 * Integer.BYTES);
+            long expected = HEADER_BYTES + Integer.BYTES * (4L * size + 1) + poolBytes;
+            if (header.getInt(0) != MAGIC || size < 0 || poolBytes < 0
+                || channel.size() != expected) {
+                throw new IOException(path + " is not an autocomplete snapshot");
+            }
+            long position = HEADER_BYTES;
+            IntBuffer weights = mapInts(channel, position, size);
+            position += Integer.BYTES * (long) size;
+            IntBuffer offsets = mapInts(channel, position, size + 1);
+            position += Integer.BYTES * (size + 1L);
+            IntBuffer tree = mapInts(channel, position, 2 * size);
+            position += Integer.BYTES * (2L * size);
+            ByteBuffer pool = channel.map(FileChannel.MapMode.READ_ONLY, position, poolBytes);
+            TermStore store = new TermStore(pool, offsets, weights);
+            return new SortedTermIndex(store, new RangeMaximum(weights, tree));
+        }
+    }
+
+    // Returns the given ints encoded as little-endian bytes.
+    private static ByteBuffer encode(IntBuffer ints) {
+        ByteBuffer bytes = ByteBuffer.allocate(Integer.BYTES * ints.remaining())
+                                     .order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asIntBuffer().put(ints);
+        return bytes;
+    }
+
+    // Writes every remaining byte of the buffer to the channel.
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // Maps count little-endian ints starting at the given position of the channel.
+    private static IntBuffer mapInts(FileChannel channel, long position, int count)
+            throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, Integer.BYTES * (long) count)
+                      .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+}
@@ -0,0 +1,48 @@
+package autocomplete;
+
+import java.util.*;
+
+// An index over a corpus of terms that answers case-insensitive prefix queries.
+public interface TermIndex {
+    // Returns all terms that start with the given non-empty prefix, in the order of
+    // Term::compareToByReverseWeight.
+    public List<Term> allMatches(String prefix);
+
+    // Returns an iterator over the terms that start with the given non-empty prefix, in
+    // descending order of weight. Terms are found lazily, so stopping after the first k costs
+    // about O(k log k) on top of locating the prefix.
+    public Iterator<Term> byWeight(String prefix);
+
+    // Returns an iterator over the terms that have a prefix within maxEdits insertions, deletions
+    // or substitutions of the given prefix, ignoring case, in descending order of weight. Only
+    // the parts of the index that can still come within maxEdits are visited.
+    public Iterator<Term> fuzzyByWeight(String prefix, int maxEdits);
+
+    // Returns the k heaviest terms that start with the given non-empty prefix, in descending
+    // order of weight.
+    public default List<Term> topMatches(String prefix, int k) {
+        List<Term> matches = new ArrayList<>();
+        Iterator<Term> iter = byWeight(prefix);
+        while (matches.size() < k && iter.hasNext()) {
+            matches.add(iter.next());
+        }
+        return matches;
+    }
+
+    // Returns the number of terms in this index.
+    public int size();
+
+    // Returns the given character folded the same way String.compareToIgnoreCase folds it.
+    public static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    // Returns the given string with every character folded.
+    public static String fold(String s) {
+        char[] folded = new char[s.length()];
+        for (int i = 0; i < folded.length; i += 1) {
+            folded[i] = fold(s.charAt(i));
+        }
+        return new String(folded);
+    }
+}
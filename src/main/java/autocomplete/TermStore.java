@@ -0,0 +1,252 @@
+package autocomplete;
+
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Column-oriented storage for a lexicographically sorted corpus of terms: a pool of UTF-8 encoded
+// queries, the offset of each query in the pool, and the weight of each term. The columns are
+// plain buffers, so a store can live on the heap or in a memory-mapped snapshot file. Term
+// objects are only created for the entries that are actually returned, so a corpus costs a few
+// bytes of heap per term beyond its UTF-8 text.
+class TermStore {
+    // UTF-8 bytes of every query, concatenated in sorted order
+    private final ByteBuffer pool;
+    // offsets.get(i) is the start of query i in pool; offsets.get(size) is the end of the pool
+    private final IntBuffer offsets;
+    // Weight of each term
+    private final IntBuffer weights;
+    // Number of terms in this store
+    private final int size;
+
+    // Constructs a new store over the given columns.
+    TermStore(ByteBuffer pool, IntBuffer offsets, IntBuffer weights) {
+        if (offsets.limit() != weights.limit() + 1) {
+            throw new IllegalArgumentException("offsets must have one more entry than weights");
+        }
+        this.pool = pool;
+        this.offsets = offsets;
+        this.weights = weights;
+        this.size = weights.limit();
+    }
+
+    // Returns a new heap-backed store holding the given terms.
+    static TermStore of(List<Term> terms) {
+        Builder builder = new Builder();
+        for (Term term : terms) {
+            builder.add(term.query(), term.weight());
+        }
+        return builder.build();
+    }
+
+    // Returns the number of terms in this store.
+    int size() {
+        return size;
+    }
+
+    // Returns the weight of term i.
+    int weight(int i) {
+        return weights.get(i);
+    }
+
+    // Returns term i as a new Term.
+    Term term(int i) {
+        return new Term(query(i), weight(i));
+    }
+
+    // Returns the query of term i.
+    String query(int i) {
+        int start = offsets.get(i);
+        int end = offsets.get(i + 1);
+        if (pool.hasArray()) {
+            return new String(pool.array(), pool.arrayOffset() + start, end - start,
+                              StandardCharsets.UTF_8);
+        }
+        ByteBuffer bytes = pool.duplicate();
+        bytes.limit(end).position(start);
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    // Compares the leading characters of query i against the prefix, folding both sides as
+    // String.compareToIgnoreCase does. Returns 0 if and only if query i starts with the prefix.
+    // Decodes UTF-8 in place, so it never allocates.
+    int comparePrefix(int i, String prefix) {
+        long cursor = offsets.get(i);
+        int end = offsets.get(i + 1);
+        for (int j = 0; j < prefix.length(); j += 1) {
+            if (cursor == end) {
+                return -1;
+            }
+            long next = decode(cursor);
+            char a = TermIndex.fold((char) next);
+            char b = TermIndex.fold(prefix.charAt(j));
+            if (a != b) {
+                return a - b;
+            }
+            cursor = next >>> 16;
+        }
+        return 0;
+    }
+
+    // Returns the folded UTF-16 char at the given index of query i, or -1 if query i is not
+    // longer than index.
+    int foldedCharAt(int i, int index) {
+        long cursor = offsets.get(i);
+        int end = offsets.get(i + 1);
+        for (int j = 0; cursor != end; j += 1) {
+            long next = decode(cursor);
+            if (j == index) {
+                return TermIndex.fold((char) next);
+            }
+            cursor = next >>> 16;
+        }
+        return -1;
+    }
+
+    // Compares query i to query j the same way String.compareToIgnoreCase would compare them.
+    int compare(int i, int j) {
+        long cursorI = offsets.get(i);
+        long cursorJ = offsets.get(j);
+        int endI = offsets.get(i + 1);
+        int endJ = offsets.get(j + 1);
+        while (cursorI != endI && cursorJ != endJ) {
+            long nextI = decode(cursorI);
+            long nextJ = decode(cursorJ);
+            char a = TermIndex.fold((char) nextI);
+            char b = TermIndex.fold((char) nextJ);
+            if (a != b) {
+                return a - b;
+            }
+            cursorI = nextI >>> 16;
+            cursorJ = nextJ >>> 16;
+        }
+        return Boolean.compare(cursorI != endI, cursorJ != endJ);
+    }
+
+    // Decodes the next UTF-16 char of a query. A cursor holds the pool position of the next UTF-8
+    // sequence in its low 32 bits and, once the high surrogate of a four-byte sequence has been
+    // returned, the low surrogate still owed in the 16 bits above that. Returns the char in the
+    // low 16 bits and the advanced cursor in the bits above it, so the next cursor is result >>> 16.
+    private long decode(long cursor) {
+        int position = (int) cursor;
+        char pending = (char) (cursor >>> 32);
+        if (pending != 0) {
+            return ((long) position << 16) | pending;
+        }
+        int b = pool.get(position++);
+        char c;
+        if (b >= 0) {
+            c = (char) b;
+        } else if ((b & 0xE0) == 0xC0) {
+            c = (char) (((b & 0x1F) << 6) | (pool.get(position++) & 0x3F));
+        } else if ((b & 0xF0) == 0xE0) {
+            c = (char) (((b & 0x0F) << 12) | ((pool.get(position++) & 0x3F) << 6)
+                        | (pool.get(position++) & 0x3F));
+        } else {
+            int codePoint = ((b & 0x07) << 18) | ((pool.get(position++) & 0x3F) << 12)
+                            | ((pool.get(position++) & 0x3F) << 6) | (pool.get(position++) & 0x3F);
+            c = Character.highSurrogate(codePoint);
+            pending = Character.lowSurrogate(codePoint);
+        }
+        return ((long) pending << 48) | ((long) position << 16) | c;
+    }
+
+    // Returns the pool column.
+    ByteBuffer pool() {
+        return pool.duplicate();
+    }
+
+    // Returns the offsets column.
+    IntBuffer offsets() {
+        return offsets.duplicate();
+    }
+
+    // Returns the weights column.
+    IntBuffer weights() {
+        return weights.duplicate();
+    }
+
+    // Accumulates terms in any order into growable primitive columns, then sorts them into a
+    // TermStore. No Term or String is kept per entry.
+    static class Builder {
+        // UTF-8 bytes of every query added so far, in insertion order
+        private byte[] pool = new byte[1024];
+        // offsets[i] is the start of query i in pool; offsets[size] is the end of the pool
+        private int[] offsets = new int[17];
+        // Weight of each term
+        private int[] weights = new int[16];
+        // Number of terms added so far
+        private int size;
+
+        // Adds a term with the given query and weight.
+        Builder add(String query, int weight) {
+            if (query == null) {
+                throw new IllegalArgumentException("query cannot be null.");
+            }
+            byte[] bytes = query.getBytes(StandardCharsets.UTF_8);
+            int end = Math.addExact(offsets[size], bytes.length);
+            if (end > pool.length) {
+                pool = Arrays.copyOf(pool, Math.max(end, (int) Math.min(2L * pool.length,
+                                                                         Integer.MAX_VALUE - 8)));
+            }
+            if (size == weights.length) {
+                weights = Arrays.copyOf(weights, 2 * size);
+                offsets = Arrays.copyOf(offsets, 2 * size + 1);
+            }
+            System.arraycopy(bytes, 0, pool, offsets[size], bytes.length);
+            weights[size] = weight;
+            size += 1;
+            offsets[size] = end;
+            return this;
+        }
+
+        // Returns a new store holding every term added so far, sorted in lexicographic order.
+        // Terms with equal queries keep the order in which they were added.
+        TermStore build() {
+            TermStore unsorted = new TermStore(ByteBuffer.wrap(pool, 0, offsets[size]),
+                                               IntBuffer.wrap(offsets, 0, size + 1),
+                                               IntBuffer.wrap(weights, 0, size));
+            int[] order = new int[size];
+            for (int i = 0; i < size; i += 1) {
+                order[i] = i;
+            }
+            mergeSort(order, new int[size], 0, size, unsorted);
+
+            byte[] sortedPool = new byte[offsets[size]];
+            int[] sortedOffsets = new int[size + 1];
+            int[] sortedWeights = new int[size];
+            for (int i = 0; i < size; i += 1) {
+                int start = offsets[order[i]];
+                int length = offsets[order[i] + 1] - start;
+                System.arraycopy(pool, start, sortedPool, sortedOffsets[i], length);
+                sortedOffsets[i + 1] = sortedOffsets[i] + length;
+                sortedWeights[i] = weights[order[i]];
+            }
+            return new TermStore(ByteBuffer.wrap(sortedPool), IntBuffer.wrap(sortedOffsets),
+                                 IntBuffer.wrap(sortedWeights));
+        }
+
+        // Stably sorts order[lo, hi) by the queries of the store they index.
+        private static void mergeSort(int[] order, int[] scratch, int lo, int hi, TermStore store) {
+            if (hi - lo < 2) {
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            mergeSort(order, scratch, lo, mid, store);
+            mergeSort(order, scratch, mid, hi, store);
+            if (store.compare(order[mid - 1], order[mid]) <= 0) {
+                return;
+            }
+            System.arraycopy(order, lo, scratch, lo, hi - lo);
+            int left = lo;
+            int right = mid;
+            for (int i = lo; i < hi; i += 1) {
+                if (right == hi || (left < mid && store.compare(scratch[left], scratch[right]) <= 0)) {
+                    order[i] = scratch[left++];
+                } else {
+                    order[i] = scratch[right++];
+                }
+            }
+        }
+    }
+}
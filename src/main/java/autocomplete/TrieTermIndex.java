@@ -0,0 +1,225 @@
+package autocomplete;
+
+import java.util.*;
+
+// A TermIndex that stores folded queries in a compressed (radix) trie. Every node caches the
+// maximum weight of any term below it, so top-k queries expand nodes best-first and never visit
+// a subtree that cannot beat the k-th heaviest term found so far.
+class TrieTermIndex implements TermIndex {
+    private static final Node[] NO_CHILDREN = new Node[0];
+    private static final Term[] NO_TERMS = new Term[0];
+
+    // Root of the trie, whose label is the common prefix of every key
+    private final Node root;
+    // Number of terms in the trie
+    private final int size;
+
+    // Constructs a new index over the terms in the given store.
+    TrieTermIndex(TermStore store) {
+        List<Term> terms = new ArrayList<>(store.size());
+        String[] keys = new String[store.size()];
+        for (int i = 0; i < keys.length; i += 1) {
+            terms.add(store.term(i));
+            keys[i] = TermIndex.fold(terms.get(i).query());
+        }
+        root = keys.length == 0 ? new Node("", NO_TERMS, NO_CHILDREN)
+                                : build(terms, keys, 0, keys.length, 0, 0);
+        size = keys.length;
+    }
+
+    public List<Term> allMatches(String prefix) {
+        Node node = find(prefix);
+        if (node == null) {
+            return List.of();
+        }
+        List<Term> matches = new ArrayList<>();
+        collect(node, matches);
+        Collections.sort(matches, Term::compareToByReverseWeight);
+        return matches;
+    }
+
+    public Iterator<Term> byWeight(String prefix) {
+        PriorityQueue<Object> frontier = frontier();
+        Node node = find(prefix);
+        if (node != null) {
+            frontier.add(node);
+        }
+        return heaviestFirst(frontier);
+    }
+
+    public Iterator<Term> fuzzyByWeight(String prefix, int maxEdits) {
+        FuzzyPrefix automaton = new FuzzyPrefix(prefix, maxEdits);
+        PriorityQueue<Object> frontier = frontier();
+        collectFuzzy(root, automaton, automaton.start(), frontier);
+        return heaviestFirst(frontier);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Returns an empty frontier of Terms and Nodes. Nodes are queued by their cached maximum
+    // weight and terms by their own weight. Terms win ties so that a result is emitted as soon as
+    // nothing heavier can remain.
+    private static PriorityQueue<Object> frontier() {
+        return new PriorityQueue<>((a, b) -> {
+            int cmp = Integer.compare(weight(b), weight(a));
+            if (cmp == 0) {
+                cmp = Boolean.compare(a instanceof Node, b instanceof Node);
+            }
+            return cmp;
+        });
+    }
+
+    // Returns an iterator over the terms below the frontier, expanding nodes best-first.
+    private static Iterator<Term> heaviestFirst(PriorityQueue<Object> frontier) {
+        return new Iterator<Term>() {
+            public boolean hasNext() {
+                // Expand nodes until the heaviest entry is a term
+                while (frontier.peek() instanceof Node) {
+                    Node current = (Node) frontier.remove();
+                    Collections.addAll(frontier, current.terms);
+                    Collections.addAll(frontier, current.children);
+                }
+                return !frontier.isEmpty();
+            }
+
+            public Term next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return (Term) frontier.remove();
+            }
+        };
+    }
+
+    // Adds to the frontier every shallowest node in the subtrie that the automaton accepts, given
+    // the state before consuming the node's label.
+    private static void collectFuzzy(Node node, FuzzyPrefix automaton, int[] row,
+                                     PriorityQueue<Object> frontier) {
+        for (int i = 0; i < node.label.length(); i += 1) {
+            if (automaton.accepts(row)) {
+                frontier.add(node);
+                return;
+            }
+            row = automaton.step(row, node.label.charAt(i));
+            if (row == null) {
+                return;
+            }
+        }
+        if (automaton.accepts(row)) {
+            frontier.add(node);
+            return;
+        }
+        for (Node child : node.children) {
+            collectFuzzy(child, automaton, row, frontier);
+        }
+    }
+
+    // Returns the shallowest node whose path starts with the folded prefix, or null if none does.
+    private Node find(String prefix) {
+        Node node = root;
+        int depth = 0;
+        while (true) {
+            String label = node.label;
+            for (int i = 0; i < label.length() && depth < prefix.length(); i += 1, depth += 1) {
+                if (label.charAt(i) != TermIndex.fold(prefix.charAt(depth))) {
+                    return null;
+                }
+            }
+            if (depth == prefix.length()) {
+                return node;
+            }
+            node = node.child(TermIndex.fold(prefix.charAt(depth)));
+            if (node == null) {
+                return null;
+            }
+        }
+    }
+
+    // Builds the subtrie for terms[lo, hi), whose keys share their first depth characters. The
+    // node's label starts at labelStart, the depth at which its parent branched.
+    private static Node build(List<Term> terms, String[] keys, int lo, int hi, int labelStart,
+                              int depth) {
+        // Keys are sorted, so the common prefix of the range is that of its first and last keys
+        String first = keys[lo];
+        String last = keys[hi - 1];
+        while (depth < first.length() && first.charAt(depth) == last.charAt(depth)) {
+            depth += 1;
+        }
+        // Keys that end at this node sort before every longer key
+        int split = lo;
+        while (split < hi && keys[split].length() == depth) {
+            split += 1;
+        }
+        Term[] ending = terms.subList(lo, split).toArray(NO_TERMS);
+        Arrays.sort(ending, (a, b) -> Integer.compare(b.weight(), a.weight()));
+
+        List<Node> children = new ArrayList<>();
+        int start = split;
+        while (start < hi) {
+            char c = keys[start].charAt(depth);
+            int end = start + 1;
+            while (end < hi && keys[end].charAt(depth) == c) {
+                end += 1;
+            }
+            children.add(build(terms, keys, start, end, depth, depth + 1));
+            start = end;
+        }
+        return new Node(first.substring(labelStart, depth), ending, children.toArray(NO_CHILDREN));
+    }
+
+    // Adds every term in the subtrie rooted at node to the given list.
+    private static void collect(Node node, List<Term> result) {
+        Collections.addAll(result, node.terms);
+        for (Node child : node.children) {
+            collect(child, result);
+        }
+    }
+
+    // Returns the priority of a queued Term or Node.
+    private static int weight(Object o) {
+        return o instanceof Term ? ((Term) o).weight() : ((Node) o).maxWeight;
+    }
+
+    // A trie node reached by following its label from its parent.
+    private static class Node {
+        // Folded characters on the edge into this node; only the root's label may be empty
+        private final String label;
+        // Terms whose folded query ends at this node, in descending order of weight
+        private final Term[] terms;
+        // Children in increasing order of the first character of their labels
+        private final Node[] children;
+        // Maximum weight of any term in this subtrie
+        private final int maxWeight;
+
+        private Node(String label, Term[] terms, Node[] children) {
+            this.label = label;
+            this.terms = terms;
+            this.children = children;
+            int max = terms.length > 0 ? terms[0].weight() : Integer.MIN_VALUE;
+            for (Node child : children) {
+                max = Math.max(max, child.maxWeight);
+            }
+            this.maxWeight = max;
+        }
+
+        // Returns the child whose label starts with the given character, or null if none does.
+        private Node child(char c) {
+            int lo = 0;
+            int hi = children.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                char first = children[mid].label.charAt(0);
+                if (first < c) {
+                    lo = mid + 1;
+                } else if (first > c) {
+                    hi = mid;
+                } else {
+                    return children[mid];
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package letterinventory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * Finds multi-word anagrams: every combination of dictionary words that
+ * uses exactly the letters of a phrase. Each combination is found once
+ * rather than once per ordering: its words come in the order that their
+ * letters first appear in the dictionary, so with "stop" listed before
+ * "ape", "pots" still comes before "ape".
+ * <p>
+ * Words with the same letters, such as "pots", "stop" and "tops", are
+ * searched as one inventory and only told apart in the results. Before
+ * searching, the dictionary is cut down to the inventories that fit in the
+ * phrase, and each step only tries inventories that fit in what its parent
+ * had left. The search is depth first and passes on each anagram as soon as
+ * it finds it, so stopping early also bounds the work done. It only keeps
+ * a bounded memo of remaining inventories that turned out to have no
+ * anagram, since many different first words leave the same letters behind.
+ * The search works on PackedInventory, which tests whether one inventory
+ * fits in another and takes it away without allocating.
+ */
+class AnagramSolver {
+
+    // Number of dead ends a search remembers
+    private static final int MEMO_LIMIT = 1 << 20;
+
+    // Inventory of each group of words with the same letters, in order of first appearance
+    private final List<PackedInventory> inventories;
+    // words.get(i) holds the words whose inventory is inventories.get(i)
+    private final List<List<String>> words;
+    // Maps each inventory to its index in inventories
+    private final Map<PackedInventory, Integer> indexes;
+
+    // Constructs a solver for the given dictionary. Words with no letters, words with more than
+    // PackedInventory.MAX_COUNT of some letter, which no phrase can hold, and repeated words are
+    // left out.
+    AnagramSolver(Collection<String> dictionary) {
+        Map<PackedInventory, List<String>> groups = new LinkedHashMap<>();
+        for (String word : dictionary) {
+            PackedInventory inventory;
+            try {
+                inventory = new PackedInventory(word);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            if (!inventory.isEmpty()) {
+                List<String> group = groups.computeIfAbsent(inventory, i -> new ArrayList<>());
+                if (!group.contains(word)) {
+                    group.add(word);
+                }
+            }
+        }
+        inventories = new ArrayList<>(groups.keySet());
+        words = new ArrayList<>(groups.values());
+        indexes = new HashMap<>();
+        for (int i = 0; i < inventories.size(); i += 1) {
+            indexes.put(inventories.get(i), i);
+        }
+    }
+
+    // Passes every anagram of the phrase with at most maxWords words, or any number if maxWords is
+    // 0, to results as it is found, until results returns false. The words of each anagram come in
+    // the order their letters first appear in the dictionary, and the anagrams are in increasing
+    // order of their words by that order.
+    // Throws an IllegalArgumentException if the phrase has more than PackedInventory.MAX_COUNT of
+    // some letter.
+    void solve(String phrase, int maxWords, Predicate<List<String>> results) {
+        solve(phrase, maxWords, 0, results);
+    }
+
+    // Passes anagrams of the phrase to results like solve, but gives up once the search has tested
+    // budget inventories against remaining letters, or never if budget is 0, so that it cannot run
+    // for long whatever the phrase. Returns false if it gave up before finding every anagram or
+    // being stopped by results.
+    boolean solve(String phrase, int maxWords, long budget, Predicate<List<String>> results) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("budget cannot be negative");
+        }
+        Search search = new Search(phrase, maxWords, budget);
+        search.run(false, results);
+        return !search.exhausted.get();
+    }
+
+    // Passes every anagram of the phrase to results like solve, but searches the anagrams starting
+    // with each word in parallel, so results is called from several threads at once and the
+    // anagrams come in no particular order. Stops once results returns false on any thread.
+    void solveParallel(String phrase, int maxWords, Predicate<List<String>> results) {
+        new Search(phrase, maxWords, 0).run(true, results);
+    }
+
+    // The state of one search: the phrase, the inventories that fit in it, and the memo.
+    private class Search {
+        // Letters of the phrase
+        private final PackedInventory phrase;
+        // Maximum number of words of an anagram
+        private final int maxWords;
+        // Indexes of the inventories that fit in the phrase, in increasing order
+        private final int[] candidates;
+        // Remaining inventories that no combination uses up, with the number of words that may
+        // use them and the smallest inventory index they may use; at most MEMO_LIMIT of them
+        private final Set<Memo> deadEnds;
+        // Set once results returns false or the budget runs out
+        private final AtomicBoolean stopped;
+        // Set once the budget runs out
+        private final AtomicBoolean exhausted;
+        // Number of inventory tests the search may make, or 0 for any number
+        private final long budget;
+        // Number of inventory tests made so far
+        private final AtomicLong tests;
+
+        private Search(String phrase, int maxWords, long budget) {
+            if (maxWords < 0) {
+                throw new IllegalArgumentException("maxWords cannot be negative");
+            }
+            this.phrase = new PackedInventory(phrase);
+            this.maxWords = maxWords == 0 ? Integer.MAX_VALUE : maxWords;
+            this.budget = budget;
+            tests = new AtomicLong();
+            stopped = new AtomicBoolean();
+            exhausted = new AtomicBoolean();
+            candidates = fitting(this.phrase,
+                                 IntStream.range(0, inventories.size()).toArray(), 0);
+            deadEnds = ConcurrentHashMap.newKeySet();
+        }
+
+        // Finds the anagrams starting with each candidate in turn, or in parallel, and passes them
+        // to results.
+        private void run(boolean parallel, Predicate<List<String>> results) {
+            if (phrase.isEmpty()) {
+                return;
+            }
+            IntStream firsts = IntStream.range(0, candidates.length);
+            (parallel ? firsts.parallel() : firsts).forEach(c -> {
+                if (!stopped.get()) {
+                    // Every inventory has a letter, so no anagram has more words than letters
+                    int[] combination = new int[Math.min(maxWords, phrase.size())];
+                    extend(new PackedInventory(phrase), maxWords, candidates, c, combination, 0,
+                           results);
+                }
+            });
+        }
+
+        // Uses the inventory at position c of fitting as word depth of the combination, and passes
+        // every anagram that completes the rest of the remaining letters, in at most left words
+        // in all, to results. Returns true if there was any, as far as the search went.
+        private boolean extend(PackedInventory remaining, int left, int[] fitting, int c,
+                               int[] combination, int depth, Predicate<List<String>> results) {
+            PackedInventory inventory = inventories.get(fitting[c]);
+            combination[depth] = fitting[c];
+            remaining.subtractInPlace(inventory);
+            boolean found = false;
+            if (remaining.isEmpty()) {
+                found = true;
+                expand(combination, depth + 1, 0, new ArrayList<>(), results);
+            } else if (fewer(left) > 0) {
+                found = complete(remaining, fewer(left), fitting, c, combination, depth + 1,
+                                 results);
+            }
+            remaining.addInPlace(inventory);
+            return found;
+        }
+
+        // Passes every anagram whose words after the first depth of the combination use up the
+        // remaining letters in at most left words, taken from position from of candidates on, to
+        // results. candidates must include every inventory at least as late as candidates[from]
+        // that fits in the remaining letters. Returns true if there was any, as far as the search
+        // went.
+        private boolean complete(PackedInventory remaining, int left, int[] candidates, int from,
+                                 int[] combination, int depth, Predicate<List<String>> results) {
+            if (left == 1) {
+                // Only the remaining letters themselves can be the last word
+                Integer last = indexes.get(remaining);
+                if (last == null || last < candidates[from]) {
+                    return false;
+                }
+                combination[depth] = last;
+                expand(combination, depth + 1, 0, new ArrayList<>(), results);
+                return true;
+            } else if (deadEnds.contains(new Memo(remaining, left, candidates[from]))) {
+                return false;
+            }
+            int[] fitting = fitting(remaining, candidates, from);
+            boolean found = false;
+            for (int c = 0; c < fitting.length && !stopped.get(); c += 1) {
+                found |= extend(remaining, left, fitting, c, combination, depth, results);
+            }
+            // A stopped search may have missed some anagrams, so it is not a dead end. remaining
+            // changes as the search goes on, so the memo keeps a copy
+            if (!found && !stopped.get() && deadEnds.size() < MEMO_LIMIT) {
+                deadEnds.add(new Memo(new PackedInventory(remaining), left, candidates[from]));
+            }
+            return found;
+        }
+
+        // Returns the number of words left after one more, where Integer.MAX_VALUE stays unlimited so
+        // that every depth of an unlimited search shares the memo.
+        private int fewer(int left) {
+            return left == Integer.MAX_VALUE ? left : left - 1;
+        }
+
+        // Returns the indexes among the candidates, from position from on, of the inventories that
+        // fit in the remaining letters.
+        private int[] fitting(PackedInventory remaining, int[] candidates, int from) {
+            if (budget > 0 && tests.addAndGet(candidates.length - from) > budget) {
+                exhausted.set(true);
+                stopped.set(true);
+                return new int[0];
+            }
+            int[] fitting = new int[candidates.length - from];
+            int count = 0;
+            for (int c = from; c < candidates.length; c += 1) {
+                if (remaining.containsAll(inventories.get(candidates[c]))) {
+                    fitting[count] = candidates[c];
+                    count += 1;
+                }
+            }
+            return Arrays.copyOf(fitting, count);
+        }
+
+        // Passes every way of choosing words for the inventories of the first length of a
+        // combination, from position i on, to results. Repeated inventories choose their words in
+        // dictionary order, so that each anagram is passed once. Returns false if results asked to
+        // stop.
+        private boolean expand(int[] combination, int length, int i, List<String> chosen,
+                               Predicate<List<String>> results) {
+            if (stopped.get()) {
+                return false;
+            } else if (i == length) {
+                if (!results.test(List.copyOf(chosen))) {
+                    stopped.set(true);
+                    return false;
+                }
+                return true;
+            }
+            List<String> group = words.get(combination[i]);
+            int start = 0;
+            if (i > 0 && combination[i - 1] == combination[i]) {
+                start = group.indexOf(chosen.get(chosen.size() - 1));
+            }
+            for (int w = start; w < group.size(); w += 1) {
+                chosen.add(group.get(w));
+                boolean more = expand(combination, length, i + 1, chosen, results);
+                chosen.remove(chosen.size() - 1);
+                if (!more) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // Key of the memo: a remaining inventory, the number of words that may use it up and the
+    // smallest inventory index they may use.
+    private static class Memo {
+        private final PackedInventory inventory;
+        private final int left;
+        private final int start;
+
+        private Memo(PackedInventory inventory, int left, int start) {
+            this.inventory = inventory;
+            this.left = left;
+            this.start = start;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Memo)) {
+                return false;
+            }
+            Memo other = (Memo) o;
+            return left == other.left && start == other.start && inventory.equals(other.inventory);
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * inventory.hashCode() + left) * 31 + start;
+        }
+    }
+}
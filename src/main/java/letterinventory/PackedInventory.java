@@ -0,0 +1,204 @@
+package letterinventory;
+
+/**
+ * A mutable letter inventory packed into four longs, one byte per letter,
+ * for the hot loops of anagram search. It counts the same letters as
+ * LetterInventory, but tests containment and adds or subtracts in place
+ * eight letters at a time with a few word-wide operations, never allocating.
+ * Each letter can be counted at most MAX_COUNT times, which leaves the top
+ * bit of every byte free to catch borrows and carries.
+ */
+final class PackedInventory {
+
+    // Largest count of any one letter
+    static final int MAX_COUNT = 127;
+    // The top bit of every byte
+    private static final long HIGH = 0x8080808080808080L;
+
+    // Count of letter l is byte l % 8 of word l / 8; the last two bytes of words3 are unused
+    private long words0;
+    private long words1;
+    private long words2;
+    private long words3;
+    // Sum of every count
+    private int size;
+
+    // Constructs an inventory of the letters in data, ignoring case and every other character, as
+    // LetterInventory does.
+    // Throws an IllegalArgumentException if data has more than MAX_COUNT of some letter.
+    PackedInventory(String data) {
+        for (int i = 0; i < data.length(); i += 1) {
+            int letter = letterIndex(data.charAt(i));
+            if (letter >= 0) {
+                if (get(letter) == MAX_COUNT) {
+                    throw new IllegalArgumentException("at most " + MAX_COUNT + " of each letter");
+                }
+                increment(letter);
+            }
+        }
+    }
+
+    // Constructs a copy of another inventory.
+    PackedInventory(PackedInventory other) {
+        set(other);
+    }
+
+    // Returns the number of times the letter appears, in either case.
+    // Throws an IllegalArgumentException if letter is not a letter.
+    int get(char letter) {
+        int index = letterIndex(letter);
+        if (index < 0) {
+            throw new IllegalArgumentException("Character is not in alphabet.");
+        }
+        return get(index);
+    }
+
+    // Returns the sum of every letter count.
+    int size() {
+        return size;
+    }
+
+    // Returns true if every letter count is 0.
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Returns true if this inventory has at least as many of every letter as the other, which
+    // is when LetterInventory.subtract would not return null.
+    boolean containsAll(PackedInventory other) {
+        // Setting the top bit of each of this inventory's bytes keeps a subtraction from borrowing
+        // across bytes, and it survives exactly where this count is at least the other's
+        return other.size <= size
+               && (((words0 | HIGH) - other.words0) & ((words1 | HIGH) - other.words1)
+                   & ((words2 | HIGH) - other.words2) & ((words3 | HIGH) - other.words3)
+                   & HIGH) == HIGH;
+    }
+
+    // Subtracts every letter count of the other inventory from this one.
+    // Throws an IllegalArgumentException, leaving this inventory unchanged, if this inventory does
+    // not contain all of the other.
+    void subtractInPlace(PackedInventory other) {
+        if (!containsAll(other)) {
+            throw new IllegalArgumentException("inventory does not contain the other");
+        }
+        words0 -= other.words0;
+        words1 -= other.words1;
+        words2 -= other.words2;
+        words3 -= other.words3;
+        size -= other.size;
+    }
+
+    // Adds every letter count of the other inventory to this one.
+    // Throws an IllegalArgumentException, leaving this inventory unchanged, if some letter would be
+    // counted more than MAX_COUNT times.
+    void addInPlace(PackedInventory other) {
+        long sum0 = words0 + other.words0;
+        long sum1 = words1 + other.words1;
+        long sum2 = words2 + other.words2;
+        long sum3 = words3 + other.words3;
+        // Bytes of at most MAX_COUNT never carry, so a sum over MAX_COUNT sets its own top bit
+        if (((sum0 | sum1 | sum2 | sum3) & HIGH) != 0) {
+            throw new IllegalArgumentException("at most " + MAX_COUNT + " of each letter");
+        }
+        words0 = sum0;
+        words1 = sum1;
+        words2 = sum2;
+        words3 = sum3;
+        size += other.size;
+    }
+
+    // Makes this inventory a copy of another.
+    void set(PackedInventory other) {
+        words0 = other.words0;
+        words1 = other.words1;
+        words2 = other.words2;
+        words3 = other.words3;
+        size = other.size;
+    }
+
+    // Returns true if the other object stores the same letter counts as this inventory.
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        } else if (!(o instanceof PackedInventory)) {
+            return false;
+        }
+        PackedInventory other = (PackedInventory) o;
+        return words0 == other.words0 && words1 == other.words1 && words2 == other.words2
+               && words3 == other.words3;
+    }
+
+    // Returns a hash code value for this letter inventory.
+    @Override
+    public int hashCode() {
+        long hash = words0;
+        hash = hash * 0x9E3779B97F4A7C15L + words1;
+        hash = hash * 0x9E3779B97F4A7C15L + words2;
+        hash = hash * 0x9E3779B97F4A7C15L + words3;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    // Returns every letter in the inventory, in alphabetical order, the number of times it appears,
+    // in brackets, as LetterInventory.toString does.
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder(size + 2).append('[');
+        for (int letter = 0; letter < 26; letter += 1) {
+            for (int count = get(letter); count > 0; count -= 1) {
+                result.append((char) ('a' + letter));
+            }
+        }
+        return result.append(']').toString();
+    }
+
+    // Returns the count of the letter with the given index, from 0 for 'a' to 25 for 'z'.
+    private int get(int letter) {
+        return (int) (word(letter) >>> ((letter & 7) << 3)) & 0xFF;
+    }
+
+    // Adds one to the count of the letter with the given index.
+    private void increment(int letter) {
+        long one = 1L << ((letter & 7) << 3);
+        switch (letter >>> 3) {
+            case 0:
+                words0 += one;
+                break;
+            case 1:
+                words1 += one;
+                break;
+            case 2:
+                words2 += one;
+                break;
+            default:
+                words3 += one;
+                break;
+        }
+        size += 1;
+    }
+
+    // Returns the word holding the count of the letter with the given index.
+    private long word(int letter) {
+        switch (letter >>> 3) {
+            case 0:
+                return words0;
+            case 1:
+                return words1;
+            case 2:
+                return words2;
+            default:
+                return words3;
+        }
+    }
+
+    // Returns the index of a letter, from 0 for 'a' to 25 for 'z' in either case, or -1 if c is not
+    // one. Any character that LetterInventory counts, counts here too.
+    private static int letterIndex(char c) {
+        if (c < 128) {
+            int lower = c | 0x20;
+            return 'a' <= lower && lower <= 'z' ? lower - 'a' : -1;
+        }
+        int index = Character.getNumericValue(c) - 10;
+        return 0 <= index && index < 26 ? index : -1;
+    }
+}
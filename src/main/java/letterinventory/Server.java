@@ -4,14 +4,32 @@ import java.util.*;
 import java.io.*;
 import java.net.*;
 import java.nio.file.*;
+import java.util.concurrent.*;
 
 import com.sun.net.httpserver.*;
 
 public class Server {
     // Port number used to connect to this server
     private static final int PORT = Integer.parseInt(System.getenv().getOrDefault("PORT", "8000"));
+    // Number of threads serving requests, so that a slow anagram search does not hold up the rest
+    private static final int THREADS = Integer.parseInt(System.getenv().getOrDefault(
+        "THREADS", Integer.toString(Runtime.getRuntime().availableProcessors())));
+    // Number of inverted lists the similarity index is split into; 1 searches exactly
+    private static final int LISTS = Integer.parseInt(System.getenv().getOrDefault("LISTS", "1"));
+    // Number of lists each query searches, trading recall for latency when LISTS is above 1
+    private static final int PROBES = Integer.parseInt(System.getenv().getOrDefault("PROBES", "16"));
     // Maximum number of matches returned in response
     private static final int MAX_MATCHES = 10;
+    // Maximum number of multi-word anagrams returned in response
+    private static final int MAX_ANAGRAMS = 100;
+    // Number of words in a multi-word anagram when the request does not give max
+    private static final int DEFAULT_WORDS = 3;
+    // Largest max a request may give, since every extra word multiplies the search
+    private static final int MAX_WORDS = 4;
+    // Largest number of letters in a phrase searched for multi-word anagrams
+    private static final int MAX_LETTERS = 30;
+    // Number of inventory tests an anagram search may make, about a second of work at worst
+    private static final long ANAGRAM_BUDGET = 10_000_000;
     // JSON endpoint structure
     private static final String QUERY_TEMPLATE = "{\"items\":[%s]}";
 
@@ -32,6 +50,9 @@ public class Server {
                 }
             }
         }
+        // Scores every distinct inventory at once; keys.get(i) is the inventory at index i
+        List<LetterInventory> keys = new ArrayList<>(anagrams.keySet());
+        SimilarityIndex index = new SimilarityIndex(keys, LISTS);
         Random random = new Random(1 + 0x43);
         HttpServer server = HttpServer.create(new InetSocketAddress(PORT), 0);
         server.createContext("/", (HttpExchange t) -> {
@@ -45,33 +66,42 @@ public class Server {
                 return;
             }
             LetterInventory target = new LetterInventory(s);
-            PriorityQueue<LetterInventory> pq = new PriorityQueue<>(
-                Comparator.comparingDouble(target::similarity)
-                );
-            for (LetterInventory inventory : anagrams.keySet()) {
-                pq.add(inventory);
-                if (pq.size() > MAX_MATCHES) {
-                    pq.remove();
-                }
-            }
             List<String> matches = new ArrayList<>(MAX_MATCHES);
-            while (!pq.isEmpty()) {
-                LetterInventory inventory = pq.remove();
-                Set<String> options = anagrams.get(inventory);
+            for (int i : index.top(target, MAX_MATCHES, PROBES)) {
+                Set<String> options = anagrams.get(keys.get(i));
                 if (options.contains(s)) {
                     matches.add(s);
                 } else {
                     matches.add(randomChoice(options, random));
                 }
             }
-            Collections.reverse(matches);
             send(t, "application/json", String.format(QUERY_TEMPLATE, json(matches)));
         });
+        List<String> dictionary = new ArrayList<>();
+        for (Set<String> words : anagrams.values()) {
+            dictionary.addAll(words);
+        }
+        AnagramSolver solver = new AnagramSolver(dictionary);
+        server.createContext("/anagrams", (HttpExchange t) -> {
+            String[] params = t.getRequestURI().getQuery().split("&");
+            String s = parse("s", params);
+            String max = parse("max", params);
+            int words = max.matches("[0-9]{1,2}") ? Integer.parseInt(max) : 0;
+            words = words == 0 ? DEFAULT_WORDS : Math.min(words, MAX_WORDS);
+            List<String> phrases = new ArrayList<>(MAX_ANAGRAMS);
+            if (new LetterInventory(s).size() <= MAX_LETTERS) {
+                solver.solve(s, words, ANAGRAM_BUDGET, anagram -> {
+                    phrases.add(String.join(" ", anagram));
+                    return phrases.size() < MAX_ANAGRAMS;
+                });
+            }
+            send(t, "application/json", String.format(QUERY_TEMPLATE, json(phrases)));
+        });
         server.createContext("/random", (HttpExchange t) -> {
             Set<String> options = randomChoice(anagrams.values(), random);
             send(t, "application/json", "{\"s\":\"" + randomChoice(options, random) + "\"}");
         });
-        server.setExecutor(null);
+        server.setExecutor(Executors.newFixedThreadPool(THREADS));
         server.start();
     }
 
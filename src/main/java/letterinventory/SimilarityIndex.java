@@ -0,0 +1,371 @@
+package letterinventory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Finds the letter inventories most similar to a target by cosine
+ * similarity. Every inventory is normalized to unit length once, so scoring
+ * one is a dot product of 26 floats. The vectors are stored in one float
+ * array, in blocks of BLOCK inventories laid out letter by letter, so that
+ * scoring a block is a sequence of multiply-adds over contiguous floats that
+ * the JIT compiles to SIMD instructions, and letters missing from the target
+ * are skipped entirely. Large indexes are scored in parallel.
+ * <p>
+ * An index can also be split into inverted lists by spherical k-means, each
+ * holding the inventories closest to one centroid. An approximate search
+ * then scans only the lists whose centroids are most similar to the target:
+ * the more lists it probes, the higher its recall and the longer it takes.
+ */
+class SimilarityIndex {
+
+    // Number of letters in an inventory
+    private static final int LETTERS = 26;
+    // Number of inventories scored together; a block's scores stay in a few cache lines
+    private static final int BLOCK = 64;
+    // Number of blocks below which scoring in parallel costs more than it saves
+    private static final int PARALLEL_BLOCKS = 256;
+    // Number of inventories per list that k-means trains on, and its number of rounds
+    private static final int TRAINING_PER_LIST = 64;
+    private static final int ROUNDS = 8;
+    // Seed of the k-means sample, so the same inventories always give the same lists
+    private static final long SEED = 143;
+
+    // Unit vectors, stored list by list, each list padded to whole blocks: letter l of stored
+    // row r is at (r / BLOCK) * BLOCK * LETTERS + l * BLOCK + r % BLOCK
+    private final float[] vectors;
+    // rows[r] is the index of the inventory stored in row r, or -1 if r is padding
+    private final int[] rows;
+    // Blocks of list i are listStarts[i] to listStarts[i + 1]
+    private final int[] listStarts;
+    // Index of the centroid of every list, or null if there is a single list
+    private final SimilarityIndex centroids;
+    // Number of inventories
+    private final int size;
+
+    // Constructs an exact index of the given inventories, which top refers to by their index in the
+    // list.
+    SimilarityIndex(List<LetterInventory> inventories) {
+        this(inventories, 1);
+    }
+
+    // Constructs an index of the given inventories split into at most the given number of inverted
+    // lists, which top(target, k, probes) can search approximately. About the square root of the
+    // number of inventories is a good number of lists.
+    SimilarityIndex(List<LetterInventory> inventories, int lists) {
+        this(units(inventories), lists);
+    }
+
+    // Private constructor for an index of the given unit vectors.
+    private SimilarityIndex(float[][] units, int lists) {
+        if (lists < 1) {
+            throw new IllegalArgumentException("lists must be at least 1");
+        }
+        size = units.length;
+        lists = Math.max(1, Math.min(lists, size));
+        int[] assignments = new int[size];
+        if (lists > 1) {
+            float[][] means = kMeans(units, lists);
+            centroids = new SimilarityIndex(means, 1);
+            IntStream.range(0, size).parallel().forEach(i -> {
+                assignments[i] = centroids.search(units[i], 1, null)[0];
+            });
+        } else {
+            centroids = null;
+        }
+        int[] counts = new int[lists];
+        for (int assignment : assignments) {
+            counts[assignment] += 1;
+        }
+        listStarts = new int[lists + 1];
+        for (int i = 0; i < lists; i += 1) {
+            listStarts[i + 1] = listStarts[i] + (counts[i] + BLOCK - 1) / BLOCK;
+        }
+        vectors = new float[listStarts[lists] * BLOCK * LETTERS];
+        rows = new int[listStarts[lists] * BLOCK];
+        Arrays.fill(rows, -1);
+        int[] next = new int[lists];
+        for (int i = 0; i < lists; i += 1) {
+            next[i] = listStarts[i] * BLOCK;
+        }
+        for (int i = 0; i < size; i += 1) {
+            int row = next[assignments[i]];
+            next[assignments[i]] += 1;
+            rows[row] = i;
+            int base = (row / BLOCK) * BLOCK * LETTERS + row % BLOCK;
+            for (int l = 0; l < LETTERS; l += 1) {
+                vectors[base + l * BLOCK] = units[i][l];
+            }
+        }
+    }
+
+    // Returns the number of inventories in this index.
+    int size() {
+        return size;
+    }
+
+    // Returns the number of inverted lists this index is split into.
+    int lists() {
+        return listStarts.length - 1;
+    }
+
+    // Returns the indexes of the k inventories most similar to the target, most similar first.
+    // Of two equally similar inventories, the one with the smaller index comes first. An empty
+    // target is equally similar, 0, to every inventory.
+    int[] top(LetterInventory target, int k) {
+        return top(target, k, lists());
+    }
+
+    // Returns the indexes of the k most similar inventories in the probes lists whose centroids are
+    // most similar to the target, most similar first. Probing every list gives the exact result.
+    int[] top(LetterInventory target, int k, int probes) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k cannot be negative");
+        } else if (probes < 1) {
+            throw new IllegalArgumentException("probes must be at least 1");
+        }
+        float[] query = new float[LETTERS];
+        normalize(target, query);
+        if (probes >= lists()) {
+            return search(query, k, null);
+        }
+        int[] lists = centroids.search(query, probes, null);
+        int count = 0;
+        for (int list : lists) {
+            count += listStarts[list + 1] - listStarts[list];
+        }
+        int[] blocks = new int[count];
+        count = 0;
+        for (int list : lists) {
+            for (int block = listStarts[list]; block < listStarts[list + 1]; block += 1) {
+                blocks[count] = block;
+                count += 1;
+            }
+        }
+        return search(query, k, blocks);
+    }
+
+    // Returns the indexes of the k inventories most similar to a unit query among the given blocks,
+    // or among every block if blocks is null.
+    private int[] search(float[] query, int k, int[] blocks) {
+        // Only letters in the query contribute to any score
+        int letters = 0;
+        int[] present = new int[LETTERS];
+        for (int l = 0; l < LETTERS; l += 1) {
+            if (query[l] != 0) {
+                present[letters] = l;
+                letters += 1;
+            }
+        }
+        int count = blocks == null ? listStarts[lists()] : blocks.length;
+        int chunks = count < PARALLEL_BLOCKS ? 1
+                     : Math.min(Runtime.getRuntime().availableProcessors(),
+                                count / (PARALLEL_BLOCKS / 4));
+        int used = letters;
+        Heap[] partials = IntStream.range(0, chunks).parallel().mapToObj(chunk -> {
+            Heap heap = new Heap(k);
+            float[] scores = new float[BLOCK];
+            int from = (int) ((long) count * chunk / chunks);
+            int to = (int) ((long) count * (chunk + 1) / chunks);
+            for (int i = from; i < to; i += 1) {
+                int block = blocks == null ? i : blocks[i];
+                score(block, query, present, used, scores);
+                for (int r = 0; r < BLOCK; r += 1) {
+                    int row = rows[block * BLOCK + r];
+                    if (row >= 0) {
+                        heap.offer(scores[r], row);
+                    }
+                }
+            }
+            return heap;
+        }).toArray(Heap[]::new);
+        Heap top = partials[0];
+        for (int i = 1; i < partials.length; i += 1) {
+            top.offerAll(partials[i]);
+        }
+        return top.drain();
+    }
+
+    // Computes the similarity of every inventory in a block to the query, skipping absent letters.
+    private void score(int block, float[] query, int[] present, int letters, float[] scores) {
+        int base = block * BLOCK * LETTERS;
+        for (int r = 0; r < BLOCK; r += 1) {
+            scores[r] = 0;
+        }
+        for (int j = 0; j < letters; j += 1) {
+            int l = present[j];
+            float weight = query[l];
+            int offset = base + l * BLOCK;
+            for (int r = 0; r < BLOCK; r += 1) {
+                scores[r] += weight * vectors[offset + r];
+            }
+        }
+    }
+
+    // Returns the given number of centroids found by spherical k-means on a sample of the unit
+    // vectors: each round assigns every sampled vector to its most similar centroid, then moves
+    // each centroid to the normalized mean of its vectors. A centroid left without vectors stays.
+    private static float[][] kMeans(float[][] units, int lists) {
+        Random random = new Random(SEED);
+        int[] sample = IntStream.range(0, units.length).toArray();
+        int samples = (int) Math.min(units.length, (long) lists * TRAINING_PER_LIST);
+        // Partial Fisher-Yates shuffle: the first samples entries become a uniform sample
+        for (int i = 0; i < samples; i += 1) {
+            int j = i + random.nextInt(units.length - i);
+            int swap = sample[i];
+            sample[i] = sample[j];
+            sample[j] = swap;
+        }
+        float[][] means = new float[lists][];
+        for (int c = 0; c < lists; c += 1) {
+            means[c] = units[sample[c]].clone();
+        }
+        int[] assignments = new int[samples];
+        for (int round = 0; round < ROUNDS; round += 1) {
+            SimilarityIndex index = new SimilarityIndex(means, 1);
+            IntStream.range(0, samples).parallel().forEach(i -> {
+                assignments[i] = index.search(units[sample[i]], 1, null)[0];
+            });
+            double[][] sums = new double[lists][LETTERS];
+            for (int i = 0; i < samples; i += 1) {
+                float[] unit = units[sample[i]];
+                for (int l = 0; l < LETTERS; l += 1) {
+                    sums[assignments[i]][l] += unit[l];
+                }
+            }
+            for (int c = 0; c < lists; c += 1) {
+                double norm = 0;
+                for (int l = 0; l < LETTERS; l += 1) {
+                    norm += sums[c][l] * sums[c][l];
+                }
+                if (norm > 0) {
+                    double scale = 1 / Math.sqrt(norm);
+                    for (int l = 0; l < LETTERS; l += 1) {
+                        means[c][l] = (float) (sums[c][l] * scale);
+                    }
+                }
+            }
+        }
+        return means;
+    }
+
+    // Returns the unit vector of every inventory.
+    private static float[][] units(List<LetterInventory> inventories) {
+        float[][] units = new float[inventories.size()][LETTERS];
+        for (int i = 0; i < units.length; i += 1) {
+            normalize(inventories.get(i), units[i]);
+        }
+        return units;
+    }
+
+    // Stores the letter counts of an inventory in vector, scaled to unit length unless all are 0.
+    private static void normalize(LetterInventory inventory, float[] vector) {
+        double norm = 0;
+        for (int l = 0; l < LETTERS; l += 1) {
+            int count = inventory.get((char) ('a' + l));
+            vector[l] = count;
+            norm += (double) count * count;
+        }
+        if (norm > 0) {
+            double scale = 1 / Math.sqrt(norm);
+            for (int l = 0; l < LETTERS; l += 1) {
+                vector[l] = (float) (vector[l] * scale);
+            }
+        }
+    }
+
+    // Keeps the k highest scores offered to it, and the indexes they belong to, in a bounded binary
+    // min-heap of primitives, so that the score to beat is always at hand without any boxing.
+    private static class Heap {
+        // Heap-ordered scores and indexes; the worst kept inventory is at position 0
+        private final float[] scores;
+        private final int[] indexes;
+        // Number of inventories kept
+        private int size;
+
+        private Heap(int k) {
+            scores = new float[k];
+            indexes = new int[k];
+        }
+
+        // Keeps the inventory if it beats the worst one kept, or fewer than k are kept.
+        private void offer(float score, int index) {
+            if (size < scores.length) {
+                scores[size] = score;
+                indexes[size] = index;
+                size += 1;
+                up(size - 1);
+            } else if (size > 0 && worse(scores[0], indexes[0], score, index)) {
+                scores[0] = score;
+                indexes[0] = index;
+                down(0);
+            }
+        }
+
+        // Offers every inventory kept by another heap.
+        private void offerAll(Heap other) {
+            for (int i = 0; i < other.size; i += 1) {
+                offer(other.scores[i], other.indexes[i]);
+            }
+        }
+
+        // Empties the heap, returning the kept indexes from best to worst.
+        private int[] drain() {
+            int[] result = new int[size];
+            while (size > 0) {
+                result[size - 1] = indexes[0];
+                size -= 1;
+                scores[0] = scores[size];
+                indexes[0] = indexes[size];
+                down(0);
+            }
+            return result;
+        }
+
+        // Returns true if the first inventory ranks below the second: a lower score, or an equal
+        // score and a larger index.
+        private static boolean worse(float score, int index, float otherScore, int otherIndex) {
+            return score < otherScore || (score == otherScore && index > otherIndex);
+        }
+
+        private void up(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!worse(scores[i], indexes[i], scores[parent], indexes[parent])) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void down(int i) {
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    return;
+                }
+                if (child + 1 < size
+                    && worse(scores[child + 1], indexes[child + 1], scores[child], indexes[child])) {
+                    child += 1;
+                }
+                if (!worse(scores[child], indexes[child], scores[i], indexes[i])) {
+                    return;
+                }
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        private void swap(int i, int j) {
+            float score = scores[i];
+            scores[i] = scores[j];
+            scores[j] = score;
+            int index = indexes[i];
+            indexes[i] = indexes[j];
+            indexes[j] = index;
+        }
+    }
+}
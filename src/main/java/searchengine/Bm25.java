@@ -0,0 +1,76 @@
+package searchengine;
+
+/**
+ * Scores documents against query terms with Okapi BM25, using fixed corpus
+ * statistics.
+ */
+class Bm25 {
+
+    // BM25 calibration parameter for term-frequency scaling
+    private static final double K1 = 1.2;
+    // BM25 calibration parameter for document length scaling
+    private static final double B = 0.75;
+
+    // Number of documents in the corpus
+    private final int count;
+    // Average number of terms per document
+    private final double averageLength;
+
+    /**
+     * Constructs a new Bm25 for a corpus with the given statistics.
+     *
+     * @param count         The number of documents in the corpus.
+     * @param averageLength The average number of terms per document.
+     */
+    Bm25(int count, double averageLength) {
+        this.count = count;
+        this.averageLength = averageLength;
+    }
+
+    /**
+     * Returns the inverse document frequency of a term. Never negative, so
+     * that score bounds only grow with more terms.
+     *
+     * @param documentFrequency The number of documents containing the term.
+     * @return the weight of the term.
+     */
+    double idf(int documentFrequency) {
+        return Math.log(1 + (count - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+
+    /**
+     * Returns the score a document gets from one term.
+     *
+     * @param idf       The inverse document frequency of the term.
+     * @param frequency The number of times the term occurs in the document.
+     * @param length    The number of terms in the document.
+     * @return the document's score for the term.
+     */
+    double score(double idf, int frequency, int length) {
+        return idf * tf(frequency, length);
+    }
+
+    /**
+     * Returns an upper bound on the score any document in a posting list can
+     * get from its term.
+     *
+     * @param idf      The inverse document frequency of the term.
+     * @param postings The term's posting list.
+     * @return the largest possible score from the term.
+     */
+    double bound(double idf, PostingList postings) {
+        return idf * tf(postings.maxFrequency(), postings.minLength());
+    }
+
+    /**
+     * Private method that computes the normalized term frequency, which grows
+     * with the frequency and shrinks with the document length.
+     *
+     * @param frequency The number of times the term occurs in the document.
+     * @param length    The number of terms in the document.
+     * @return the normalized term frequency.
+     */
+    private double tf(int frequency, int length) {
+        return frequency * (K1 + 1) / (frequency + K1 * (1 - B + B * length / averageLength));
+    }
+}
@@ -0,0 +1,167 @@
+package searchengine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stores the documents of a SearchEngine under dense integer IDs, so that
+ * the index refers to each document by a 4-byte ID instead of by its text.
+ * IDs are assigned in increasing order starting at 0. The length of each
+ * document, in terms, is kept for scoring.
+ * <p>
+ * A document's first line is its title and the rest its body. Where the
+ * preview of each body ends is found once, when the document is stored, so
+ * that showing a result never reads further into the document than that.
+ */
+class DocumentStore {
+
+    // Maximum number of words of a document's body shown in its preview
+    static final int PREVIEW_WORDS = 50;
+    // Appended to a preview that leaves out part of the body
+    static final String ELLIPSIS = "...";
+
+    // documents.get(id) is the document with that ID
+    private final List<String> documents;
+    // lengths[id] is the number of terms in the document with that ID
+    private int[] lengths;
+    // previewEnds[id] is the index in the document with that ID where its preview ends
+    private int[] previewEnds;
+    // Sum of the lengths of every document
+    private long totalLength;
+
+    /**
+     * Constructs a new, empty DocumentStore.
+     */
+    DocumentStore() {
+        documents = new ArrayList<>();
+        lengths = new int[16];
+        previewEnds = new int[16];
+    }
+
+    /**
+     * Stores a document under the next unused ID.
+     *
+     * @param document Any non-null string.
+     * @param length   The number of terms in the document.
+     * @return the ID assigned to the document.
+     */
+    int add(String document, int length) {
+        int id = documents.size();
+        if (id == lengths.length) {
+            lengths = Arrays.copyOf(lengths, 2 * id);
+            previewEnds = Arrays.copyOf(previewEnds, 2 * id);
+        }
+        documents.add(document);
+        lengths[id] = length;
+        previewEnds[id] = previewEnd(document);
+        totalLength += length;
+        return id;
+    }
+
+    /**
+     * Returns the document with the given ID.
+     *
+     * @param id An ID previously returned by add.
+     * @return the document stored under id.
+     */
+    String get(int id) {
+        return documents.get(id);
+    }
+
+    /**
+     * Returns the title of the document with the given ID.
+     *
+     * @param id An ID previously returned by add.
+     * @return the first line of the document.
+     */
+    String title(int id) {
+        String document = documents.get(id);
+        return document.substring(0, titleEnd(document, previewEnds[id]));
+    }
+
+    /**
+     * Returns the preview of the document with the given ID.
+     *
+     * @param id An ID previously returned by add.
+     * @return the start of the document's body, ending in ELLIPSIS if part
+     * of the body is left out.
+     */
+    String preview(int id) {
+        String document = documents.get(id);
+        int start = Math.min(titleEnd(document, previewEnds[id]) + 1, previewEnds[id]);
+        String preview = document.substring(start, previewEnds[id]);
+        return previewEnds[id] < document.length() ? preview + ELLIPSIS : preview;
+    }
+
+    /**
+     * Returns the length of the document with the given ID.
+     *
+     * @param id An ID previously returned by add.
+     * @return the number of terms in the document stored under id.
+     */
+    int length(int id) {
+        return lengths[id];
+    }
+
+    /**
+     * Returns the sum of the lengths of the stored documents.
+     *
+     * @return the total number of terms.
+     */
+    long totalLength() {
+        return totalLength;
+    }
+
+    /**
+     * Returns the number of documents stored.
+     *
+     * @return the number of documents, which is also the next ID.
+     */
+    int size() {
+        return documents.size();
+    }
+
+    /**
+     * Finds where the preview of a document ends: after the first
+     * PREVIEW_WORDS words of its body, where words are separated by
+     * whitespace, or at the end of the document if its body has no more.
+     *
+     * @param document Any non-null string.
+     * @return the index in document where its preview ends.
+     */
+    static int previewEnd(CharSequence document) {
+        int end = titleEnd(document, document.length());
+        for (int words = 0; words < PREVIEW_WORDS && end < document.length(); words += 1) {
+            while (end < document.length() && Tokenizer.isWhitespace(document.charAt(end))) {
+                end += 1;
+            }
+            while (end < document.length() && !Tokenizer.isWhitespace(document.charAt(end))) {
+                end += 1;
+            }
+        }
+        // Trailing whitespace is not a word that the preview leaves out
+        int rest = end;
+        while (rest < document.length() && Tokenizer.isWhitespace(document.charAt(rest))) {
+            rest += 1;
+        }
+        return rest == document.length() ? rest : end;
+    }
+
+    /**
+     * Private method that finds where the title of a document ends.
+     *
+     * @param document Any non-null string.
+     * @param limit    The index to stop searching at.
+     * @return the index of the first newline in document, or limit if there
+     * is none before it.
+     */
+    private static int titleEnd(CharSequence document, int limit) {
+        for (int i = 0; i < limit; i += 1) {
+            if (document.charAt(i) == '\n') {
+                return i;
+            }
+        }
+        return limit;
+    }
+}
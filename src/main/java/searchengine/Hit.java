@@ -0,0 +1,57 @@
+package searchengine;
+
+/**
+ * A document as shown in a list of search results: its ID, its title and the
+ * preview of its body. Both are read from the index without the rest of the
+ * document, so a hit costs the same however long its document is.
+ */
+class Hit {
+
+    // ID the document was given when indexed
+    private final int id;
+    // First line of the document
+    private final String title;
+    // Start of the document's body
+    private final String preview;
+
+    /**
+     * Constructs a new Hit.
+     *
+     * @param id      The document's ID.
+     * @param title   The document's title.
+     * @param preview The preview of the document's body.
+     */
+    Hit(int id, String title, String preview) {
+        this.id = id;
+        this.title = title;
+        this.preview = preview;
+    }
+
+    /**
+     * Returns the ID of the document.
+     *
+     * @return the ID the document was given when indexed.
+     */
+    int id() {
+        return id;
+    }
+
+    /**
+     * Returns the title of the document.
+     *
+     * @return the first line of the document.
+     */
+    String title() {
+        return title;
+    }
+
+    /**
+     * Returns the preview of the document's body.
+     *
+     * @return the start of the body, ending in an ellipsis if part of the
+     * body is left out.
+     */
+    String preview() {
+        return preview;
+    }
+}
@@ -0,0 +1,569 @@
+package searchengine;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * An immutable Segment stored in a file and read through memory-mapped
+ * buffers, so opening one costs a few system calls whatever its size, and
+ * its pages are loaded by the operating system only as queries touch them.
+ * <p>
+ * After a little-endian header, a segment file holds the UTF-8 text of every
+ * document, along with where the preview of each ends, the encoded posting
+ * lists, the encoded positions if the segment stores them, the int columns
+ * that locate and identify documents and locate terms, postings, positions
+ * and skip entries, and finally the term dictionary: every term in UTF-8,
+ * sorted by unsigned byte order so that it can be binary searched without
+ * decoding.
+ */
+class MappedSegment implements Segment {
+
+    // First four bytes of every segment file, "SEG4" in ASCII
+    private static final int MAGIC = 0x53454734;
+    // Magic, document, term and skip counts and flags, then total length and four byte counts
+    private static final int HEADER_BYTES = 5 * Integer.BYTES + 5 * Long.BYTES;
+    // Flag set if the segment stores positions
+    private static final int POSITIONS = 1;
+
+    // File this segment was read from
+    private final Path path;
+    // Number of documents
+    private final int size;
+    // Sum of the lengths of every document
+    private final long totalLength;
+    // UTF-8 text of every document; document i spans documentOffsets[i] to documentOffsets[i + 1]
+    private final ByteBuffer documents;
+    private final IntBuffer documentOffsets;
+    // Offset in documents where the preview of each document ends
+    private final IntBuffer previewEnds;
+    // Number of terms in each document
+    private final IntBuffer lengths;
+    // Engine-wide ID of each document, in increasing order
+    private final IntBuffer ids;
+    // UTF-8 text of every term in sorted order; term t spans termOffsets[t] to termOffsets[t + 1]
+    private final ByteBuffer terms;
+    private final IntBuffer termOffsets;
+    // Length, largest frequency and shortest document of each term's posting list
+    private final IntBuffer documentFrequencies;
+    private final IntBuffer maxFrequencies;
+    private final IntBuffer minLengths;
+    // Encoded posting lists; term t's list spans postingOffsets[t] to postingOffsets[t + 1]
+    private final ByteBuffer postings;
+    private final IntBuffer postingOffsets;
+    // Skip entries of every list; term t's entries span skipStarts[t] to skipStarts[t + 1]
+    private final IntBuffer skipStarts;
+    private final IntBuffer skipDocs;
+    private final IntBuffer skipOffsets;
+    // Encoded positions, or null if not stored; term t's span positionStarts[t] to
+    // positionStarts[t + 1], and skipPositions holds where each block's positions start
+    private final ByteBuffer positions;
+    private final IntBuffer positionStarts;
+    private final IntBuffer skipPositions;
+
+    /**
+     * Private constructor that maps the segment in the given file.
+     *
+     * @param path The segment file.
+     * @throws IOException if the file cannot be read or is not a segment.
+     */
+    private MappedSegment(Path path) throws IOException {
+        this.path = path;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException(path + " is not a search engine segment");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES)
+                                       .order(ByteOrder.LITTLE_ENDIAN);
+            size = header.getInt(Integer.BYTES);
+            int termCount = header.getInt(2 * Integer.BYTES);
+            int skipCount = header.getInt(3 * Integer.BYTES);
+            int flags = header.getInt(4 * Integer.BYTES);
+            totalLength = header.getLong(5 * Integer.BYTES);
+            long documentBytes = header.getLong(5 * Integer.BYTES + Long.BYTES);
+            long postingBytes = header.getLong(5 * Integer.BYTES + 2 * Long.BYTES);
+            long positionBytes = header.getLong(5 * Integer.BYTES + 3 * Long.BYTES);
+            long termBytes = header.getLong(5 * Integer.BYTES + 4 * Long.BYTES);
+            boolean hasPositions = (flags & POSITIONS) != 0;
+            long ints = 4L * size + 1 + 6L * termCount + 3 + 2L * skipCount
+                        + (hasPositions ? termCount + 1L + skipCount : 0);
+            if (header.getInt(0) != MAGIC || size < 0 || termCount < 0 || skipCount < 0
+                || (flags & ~POSITIONS) != 0 || documentBytes < 0 || postingBytes < 0
+                || positionBytes < 0 || (!hasPositions && positionBytes != 0) || termBytes < 0
+                || channel.size() != HEADER_BYTES + documentBytes + postingBytes + positionBytes
+                                     + Integer.BYTES * ints + termBytes) {
+                throw new IOException(path + " is not a search engine segment");
+            }
+            long position = HEADER_BYTES;
+            documents = channel.map(FileChannel.MapMode.READ_ONLY, position, documentBytes);
+            position += documentBytes;
+            postings = channel.map(FileChannel.MapMode.READ_ONLY, position, postingBytes);
+            position += postingBytes;
+            positions = hasPositions ? channel.map(FileChannel.MapMode.READ_ONLY, position,
+                                                   positionBytes)
+                                     : null;
+            position += positionBytes;
+            documentOffsets = mapInts(channel, position, size + 1);
+            position += Integer.BYTES * (size + 1L);
+            previewEnds = mapInts(channel, position, size);
+            position += Integer.BYTES * (long) size;
+            lengths = mapInts(channel, position, size);
+            position += Integer.BYTES * (long) size;
+            ids = mapInts(channel, position, size);
+            position += Integer.BYTES * (long) size;
+            termOffsets = mapInts(channel, position, termCount + 1);
+            position += Integer.BYTES * (termCount + 1L);
+            documentFrequencies = mapInts(channel, position, termCount);
+            position += Integer.BYTES * (long) termCount;
+            maxFrequencies = mapInts(channel, position, termCount);
+            position += Integer.BYTES * (long) termCount;
+            minLengths = mapInts(channel, position, termCount);
+            position += Integer.BYTES * (long) termCount;
+            postingOffsets = mapInts(channel, position, termCount + 1);
+            position += Integer.BYTES * (termCount + 1L);
+            skipStarts = mapInts(channel, position, termCount + 1);
+            position += Integer.BYTES * (termCount + 1L);
+            skipDocs = mapInts(channel, position, skipCount);
+            position += Integer.BYTES * (long) skipCount;
+            skipOffsets = mapInts(channel, position, skipCount);
+            position += Integer.BYTES * (long) skipCount;
+            if (hasPositions) {
+                positionStarts = mapInts(channel, position, termCount + 1);
+                position += Integer.BYTES * (termCount + 1L);
+                skipPositions = mapInts(channel, position, skipCount);
+                position += Integer.BYTES * (long) skipCount;
+            } else {
+                positionStarts = null;
+                skipPositions = null;
+            }
+            terms = channel.map(FileChannel.MapMode.READ_ONLY, position, termBytes);
+        }
+    }
+
+    /**
+     * Opens the segment stored in the given file.
+     *
+     * @param path A file written by write.
+     * @return the segment, backed by the file.
+     * @throws IOException if the file cannot be read or is not a segment.
+     */
+    static MappedSegment open(Path path) throws IOException {
+        return new MappedSegment(path);
+    }
+
+    /**
+     * Writes a segment file and opens it. Documents and posting lists are
+     * streamed to the file one at a time, so writing a segment needs little
+     * more heap than its term dictionary.
+     *
+     * @param path      The file to write.
+     * @param size      The number of documents.
+     * @param documents Returns the text of each document, by ID.
+     * @param lengths   Returns the number of terms in each document, by ID.
+     * @param ids       Returns the engine-wide ID of each document, by ID.
+     * @param terms     Every term of the segment, in any order.
+     * @param postings  Returns the posting list of each term. Empty lists are
+     *                  left out.
+     * @param positions Whether the segment stores positions, in which case
+     *                  every posting list must store them too.
+     * @return the new segment, backed by the file.
+     * @throws IOException if the file cannot be written, or a column of the
+     *                     segment would not fit in a single mapped buffer.
+     * @throws IllegalArgumentException if the IDs are not increasing, or
+     *                                  positions is true and a posting list
+     *                                  does not store them.
+     */
+    static MappedSegment write(Path path, int size, IntFunction<String> documents,
+                               IntUnaryOperator lengths, IntUnaryOperator ids,
+                               Iterable<String> terms,
+                               Function<String, PostingList> postings, boolean positions)
+            throws IOException {
+        List<byte[]> keys = new ArrayList<>();
+        for (String term : terms) {
+            keys.add(term.getBytes(StandardCharsets.UTF_8));
+        }
+        keys.sort(Arrays::compareUnsigned);
+        // Becomes the number of terms with a non-empty list
+        int termCount = 0;
+
+        int[] documentOffsets = new int[size + 1];
+        int[] previewEnds = new int[size];
+        int[] documentLengths = new int[size];
+        int[] documentIds = new int[size];
+        int[] termOffsets = new int[keys.size() + 1];
+        int[] documentFrequencies = new int[keys.size()];
+        int[] maxFrequencies = new int[keys.size()];
+        int[] minLengths = new int[keys.size()];
+        int[] postingOffsets = new int[keys.size() + 1];
+        int[] skipStarts = new int[keys.size() + 1];
+        int[] positionStarts = new int[keys.size() + 1];
+        IntBuffer skipDocs = IntBuffer.allocate(16);
+        IntBuffer skipOffsets = IntBuffer.allocate(16);
+        IntBuffer skipPositions = IntBuffer.allocate(positions ? 16 : 0);
+        long totalLength = 0;
+        long documentBytes = 0;
+        long postingBytes = 0;
+        long positionBytes = 0;
+        long termBytes = 0;
+        // Positions go after every posting list, so they are staged in a file of their own
+        Path staged = path.resolveSibling(path.getFileName() + ".positions");
+        try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(path),
+                                                            1 << 16);
+             OutputStream positionOutput = positions
+                                           ? new BufferedOutputStream(
+                                               Files.newOutputStream(staged), 1 << 16)
+                                           : OutputStream.nullOutputStream()) {
+            output.write(new byte[HEADER_BYTES]);
+            for (int i = 0; i < size; i += 1) {
+                String document = documents.apply(i);
+                byte[] text = document.getBytes(StandardCharsets.UTF_8);
+                output.write(text);
+                int previewEnd = DocumentStore.previewEnd(document);
+                previewEnds[i] = (int) documentBytes + (previewEnd == document.length()
+                    ? text.length
+                    : document.substring(0, previewEnd).getBytes(StandardCharsets.UTF_8).length);
+                documentBytes = checkedAdd(documentBytes, text.length);
+                documentOffsets[i + 1] = (int) documentBytes;
+                documentLengths[i] = lengths.applyAsInt(i);
+                totalLength += documentLengths[i];
+                documentIds[i] = ids.applyAsInt(i);
+                if (i > 0 && documentIds[i] <= documentIds[i - 1]) {
+                    throw new IllegalArgumentException("engine-wide IDs must be increasing");
+                }
+            }
+            for (byte[] key : keys) {
+                PostingList list = postings.apply(new String(key, StandardCharsets.UTF_8));
+                if (positions && !list.hasPositions()) {
+                    throw new IllegalArgumentException("every posting list must store positions");
+                } else if (list.size() == 0) {
+                    continue;
+                }
+                // Kept terms are moved to the front of keys, which is never behind this loop
+                int t = termCount;
+                keys.set(t, key);
+                termCount += 1;
+                ByteBuffer bytes = list.bytes();
+                IntBuffer docs = list.skipDocs();
+                IntBuffer offsets = list.skipOffsets();
+                write(output, bytes);
+                postingBytes = checkedAdd(postingBytes, bytes.limit());
+                postingOffsets[t + 1] = (int) postingBytes;
+                documentFrequencies[t] = list.size();
+                maxFrequencies[t] = list.maxFrequency();
+                minLengths[t] = list.minLength();
+                skipStarts[t + 1] = Math.addExact(skipStarts[t], docs.remaining());
+                if (skipStarts[t + 1] > skipDocs.capacity()) {
+                    int capacity = Math.max(skipStarts[t + 1], 2 * skipDocs.capacity());
+                    skipDocs = IntBuffer.wrap(Arrays.copyOf(skipDocs.array(), capacity));
+                    skipOffsets = IntBuffer.wrap(Arrays.copyOf(skipOffsets.array(), capacity));
+                    if (positions) {
+                        skipPositions = IntBuffer.wrap(Arrays.copyOf(skipPositions.array(),
+                                                                     capacity));
+                    }
+                }
+                skipDocs.position(skipStarts[t]);
+                skipDocs.put(docs);
+                skipOffsets.position(skipStarts[t]);
+                skipOffsets.put(offsets);
+                if (positions) {
+                    ByteBuffer listPositions = list.positions();
+                    write(positionOutput, listPositions);
+                    positionBytes = checkedAdd(positionBytes, listPositions.limit());
+                    positionStarts[t + 1] = (int) positionBytes;
+                    skipPositions.position(skipStarts[t]);
+                    skipPositions.put(list.skipPositions());
+                }
+            }
+            positionOutput.flush();
+            if (positions) {
+                Files.copy(staged, output);
+            }
+            for (int t = 0; t < termCount; t += 1) {
+                termBytes = checkedAdd(termBytes, keys.get(t).length);
+                termOffsets[t + 1] = (int) termBytes;
+            }
+            int skipCount = skipStarts[termCount];
+            List<int[]> columns = new ArrayList<>(List.of(
+                documentOffsets, previewEnds, documentLengths, documentIds,
+                Arrays.copyOf(termOffsets, termCount + 1),
+                Arrays.copyOf(documentFrequencies, termCount),
+                Arrays.copyOf(maxFrequencies, termCount), Arrays.copyOf(minLengths, termCount),
+                Arrays.copyOf(postingOffsets, termCount + 1),
+                Arrays.copyOf(skipStarts, termCount + 1),
+                Arrays.copyOf(skipDocs.array(), skipCount),
+                Arrays.copyOf(skipOffsets.array(), skipCount)));
+            if (positions) {
+                columns.add(Arrays.copyOf(positionStarts, termCount + 1));
+                columns.add(Arrays.copyOf(skipPositions.array(), skipCount));
+            }
+            for (int[] column : columns) {
+                write(output, encode(column));
+            }
+            for (byte[] key : keys.subList(0, termCount)) {
+                output.write(key);
+            }
+        } finally {
+            Files.deleteIfExists(staged);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(size).putInt(termCount).putInt(skipStarts[termCount])
+              .putInt(positions ? POSITIONS : 0).putLong(totalLength).putLong(documentBytes)
+              .putLong(postingBytes).putLong(positionBytes).putLong(termBytes).flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+        return open(path);
+    }
+
+    /**
+     * Returns the file this segment is stored in.
+     *
+     * @return the segment file.
+     */
+    Path path() {
+        return path;
+    }
+
+    /**
+     * Returns the number of bytes of document text and postings in this
+     * segment, which is what merging it costs.
+     *
+     * @return the size of the segment's largest columns.
+     */
+    long bytes() {
+        return (long) documents.capacity() + postings.capacity()
+               + (positions == null ? 0 : positions.capacity());
+    }
+
+    /**
+     * Returns every term in this segment, in sorted order.
+     *
+     * @return the terms that have a posting list.
+     */
+    public List<String> terms() {
+        List<String> result = new ArrayList<>(termOffsets.limit() - 1);
+        for (int t = 0; t < termOffsets.limit() - 1; t += 1) {
+            result.add(decode(terms, termOffsets.get(t), termOffsets.get(t + 1)));
+        }
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String document(int doc) {
+        return decode(documents, documentOffsets.get(doc), documentOffsets.get(doc + 1));
+    }
+
+    public String title(int doc) {
+        int start = documentOffsets.get(doc);
+        int end = previewEnds.get(doc);
+        // A newline byte is never part of a longer UTF-8 sequence
+        for (int i = start; i < end; i += 1) {
+            if (documents.get(i) == '\n') {
+                return decode(documents, start, i);
+            }
+        }
+        return decode(documents, start, end);
+    }
+
+    public String preview(int doc) {
+        int start = documentOffsets.get(doc);
+        int end = previewEnds.get(doc);
+        while (start < end && documents.get(start) != '\n') {
+            start += 1;
+        }
+        String preview = decode(documents, Math.min(start + 1, end), end);
+        return end < documentOffsets.get(doc + 1) ? preview + DocumentStore.ELLIPSIS : preview;
+    }
+
+    public int id(int doc) {
+        return ids.get(doc);
+    }
+
+    public int length(int doc) {
+        return lengths.get(doc);
+    }
+
+    public long totalLength() {
+        return totalLength;
+    }
+
+    public PostingList postings(String term) {
+        byte[] key = term.getBytes(StandardCharsets.UTF_8);
+        int lo = 0;
+        int hi = termOffsets.limit() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid;
+            } else {
+                int skipStart = skipStarts.get(mid);
+                int skipEnd = skipStarts.get(mid + 1);
+                return new PostingList(slice(postings, postingOffsets.get(mid),
+                                             postingOffsets.get(mid + 1)),
+                                       slice(skipDocs, skipStart, skipEnd),
+                                       slice(skipOffsets, skipStart, skipEnd),
+                                       positions == null ? null
+                                                         : slice(positions, positionStarts.get(mid),
+                                                                 positionStarts.get(mid + 1)),
+                                       positions == null ? null
+                                                         : slice(skipPositions, skipStart, skipEnd),
+                                       documentFrequencies.get(mid), maxFrequencies.get(mid),
+                                       minLengths.get(mid));
+            }
+        }
+        return null;
+    }
+
+    public boolean hasPositions() {
+        return positions != null;
+    }
+
+    /**
+     * Private method that compares term t of the dictionary with a key, as
+     * Arrays.compareUnsigned would.
+     *
+     * @param t   The index of a term in the dictionary.
+     * @param key The UTF-8 bytes of a term.
+     * @return a negative number, zero or a positive number as term t sorts
+     * before, equal to, or after the key.
+     */
+    private int compare(int t, byte[] key) {
+        int start = termOffsets.get(t);
+        int length = termOffsets.get(t + 1) - start;
+        for (int i = 0; i < length && i < key.length; i += 1) {
+            int cmp = Byte.toUnsignedInt(terms.get(start + i)) - Byte.toUnsignedInt(key[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.length;
+    }
+
+    /**
+     * Private method that decodes a range of UTF-8 bytes.
+     *
+     * @param bytes The buffer holding the text.
+     * @param start The offset of the first byte.
+     * @param end   The offset after the last byte.
+     * @return the decoded text.
+     */
+    private static String decode(ByteBuffer bytes, int start, int end) {
+        ByteBuffer text = bytes.duplicate();
+        text.limit(end).position(start);
+        return StandardCharsets.UTF_8.decode(text).toString();
+    }
+
+    /**
+     * Private method that returns a range of a buffer as a new buffer.
+     *
+     * @param bytes The buffer to slice.
+     * @param start The offset of the first byte.
+     * @param end   The offset after the last byte.
+     * @return a buffer sharing the bytes in the range.
+     */
+    private static ByteBuffer slice(ByteBuffer bytes, int start, int end) {
+        ByteBuffer result = bytes.duplicate();
+        result.limit(end).position(start);
+        return result.slice();
+    }
+
+    /**
+     * Private method that returns a range of a buffer as a new buffer.
+     *
+     * @param ints  The buffer to slice.
+     * @param start The index of the first int.
+     * @param end   The index after the last int.
+     * @return a buffer sharing the ints in the range.
+     */
+    private static IntBuffer slice(IntBuffer ints, int start, int end) {
+        IntBuffer result = ints.duplicate();
+        result.limit(end).position(start);
+        return result.slice();
+    }
+
+    /**
+     * Private method that adds a length to a column's size, rejecting columns
+     * too large to map as a single buffer.
+     *
+     * @param total  The column's size so far.
+     * @param length The number of bytes to add.
+     * @return the new size.
+     * @throws IOException if the column would exceed Integer.MAX_VALUE bytes.
+     */
+    private static long checkedAdd(long total, int length) throws IOException {
+        total += length;
+        if (total > Integer.MAX_VALUE) {
+            throw new IOException("segment column exceeds " + Integer.MAX_VALUE + " bytes");
+        }
+        return total;
+    }
+
+    /**
+     * Private method that returns ints encoded as little-endian bytes.
+     *
+     * @param ints The ints to encode.
+     * @return a buffer holding the encoded ints.
+     */
+    private static ByteBuffer encode(int[] ints) {
+        ByteBuffer bytes = ByteBuffer.allocate(Integer.BYTES * ints.length)
+                                     .order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asIntBuffer().put(ints);
+        return bytes;
+    }
+
+    /**
+     * Private method that writes every remaining byte of a buffer.
+     *
+     * @param output The stream to write to.
+     * @param bytes  The bytes to write.
+     * @throws IOException if the stream cannot be written.
+     */
+    private static void write(OutputStream output, ByteBuffer bytes) throws IOException {
+        if (bytes.hasArray()) {
+            output.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+        } else {
+            byte[] copy = new byte[bytes.remaining()];
+            bytes.duplicate().get(copy);
+            output.write(copy);
+        }
+    }
+
+    /**
+     * Private method that maps little-endian ints from a file.
+     *
+     * @param channel  The file to map.
+     * @param position The offset of the first int.
+     * @param count    The number of ints.
+     * @return a buffer over the ints.
+     * @throws IOException if the file cannot be mapped.
+     */
+    private static IntBuffer mapInts(FileChannel channel, long position, int count)
+            throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, Integer.BYTES * (long) count)
+                      .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+}
@@ -0,0 +1,188 @@
+package searchengine;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A Segment held on the heap that documents can be added to. Maps each term
+ * to the posting list of the documents containing it, which may also store
+ * where in each document the term occurs.
+ */
+class MemorySegment implements Segment {
+
+    // Holds every document in this segment under its ID
+    private final DocumentStore documents;
+    // ids[doc] is the engine-wide ID of each document, in increasing order
+    private int[] ids;
+    // Maps a term to the IDs of the documents containing that term, with frequencies
+    private final Map<String, PostingList> index;
+    // Whether the posting lists store positions
+    private final boolean positions;
+
+    /**
+     * Constructs a new, empty MemorySegment.
+     *
+     * @param positions Whether to store where in each document each term occurs.
+     */
+    MemorySegment(boolean positions) {
+        documents = new DocumentStore();
+        ids = new int[16];
+        index = new HashMap<>();
+        this.positions = positions;
+    }
+
+    /**
+     * Returns a new MemorySegment holding the given documents and posting
+     * lists, taking the same arguments as MappedSegment.write.
+     *
+     * @param size      The number of documents.
+     * @param documents Returns the text of each document, by ID.
+     * @param lengths   Returns the number of terms in each document, by ID.
+     * @param ids       Returns the engine-wide ID of each document, by ID.
+     * @param terms     Every term of the segment, in any order.
+     * @param postings  Returns the posting list of each term. Empty lists are
+     *                  left out.
+     * @param positions Whether the segment stores positions, in which case
+     *                  every posting list must store them too.
+     * @return the new segment.
+     * @throws IllegalArgumentException if the IDs are not increasing, or
+     *                                  positions is true and a posting list
+     *                                  does not store them.
+     */
+    static MemorySegment of(int size, IntFunction<String> documents, IntUnaryOperator lengths,
+                            IntUnaryOperator ids, Iterable<String> terms,
+                            Function<String, PostingList> postings, boolean positions) {
+        MemorySegment result = new MemorySegment(positions);
+        for (int i = 0; i < size; i += 1) {
+            result.addDocument(documents.apply(i), ids.applyAsInt(i), lengths.applyAsInt(i));
+        }
+        for (String term : terms) {
+            PostingList list = postings.apply(term);
+            if (positions && !list.hasPositions()) {
+                throw new IllegalArgumentException("every posting list must store positions");
+            } else if (list.size() > 0) {
+                result.index.put(term, list);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds a document to this segment under the next unused ID.
+     *
+     * @param document The document's text.
+     * @param id       The document's engine-wide ID, greater than any here.
+     * @param terms    The document's terms, each mapped to where it occurs in
+     *                 the document, in increasing order.
+     * @param length   The number of terms in the document.
+     * @throws IllegalArgumentException if id is not greater than every
+     *                                  engine-wide ID already here.
+     */
+    void add(String document, int id, Map<String, int[]> terms, int length) {
+        int doc = addDocument(document, id, length);
+        for (Map.Entry<String, int[]> term : terms.entrySet()) {
+            postings(term.getKey(), true).add(doc, term.getValue(), length);
+        }
+    }
+
+    /**
+     * Adds every document of another segment to this one, renumbering them
+     * to follow the documents already here.
+     *
+     * @param other The segment whose documents to add.
+     * @throws IllegalArgumentException if other's engine-wide IDs do not all
+     *                                  follow those here, or this segment
+     *                                  stores positions and other does not.
+     */
+    void addAll(MemorySegment other) {
+        int offset = documents.size();
+        for (int i = 0; i < other.size(); i += 1) {
+            addDocument(other.document(i), other.id(i), other.length(i));
+        }
+        for (Map.Entry<String, PostingList> term : other.index.entrySet()) {
+            postings(term.getKey(), true).addAll(term.getValue(), offset);
+        }
+    }
+
+    public Iterable<String> terms() {
+        return index.keySet();
+    }
+
+    public int size() {
+        return documents.size();
+    }
+
+    public String document(int doc) {
+        return documents.get(doc);
+    }
+
+    public String title(int doc) {
+        return documents.title(doc);
+    }
+
+    public String preview(int doc) {
+        return documents.preview(doc);
+    }
+
+    public int id(int doc) {
+        return ids[doc];
+    }
+
+    public int length(int doc) {
+        return documents.length(doc);
+    }
+
+    public long totalLength() {
+        return documents.totalLength();
+    }
+
+    public PostingList postings(String term) {
+        return postings(term, false);
+    }
+
+    public boolean hasPositions() {
+        return positions;
+    }
+
+    /**
+     * Private method that stores a document and its engine-wide ID.
+     *
+     * @param document The document's text.
+     * @param id       The document's engine-wide ID, greater than any here.
+     * @param length   The number of terms in the document.
+     * @return the document's ID in this segment.
+     * @throws IllegalArgumentException if id is not greater than every
+     *                                  engine-wide ID already here.
+     */
+    private int addDocument(String document, int id, int length) {
+        int doc = documents.size();
+        if (doc > 0 && id <= ids[doc - 1]) {
+            throw new IllegalArgumentException("engine-wide IDs must be added in increasing order");
+        }
+        if (doc == ids.length) {
+            ids = Arrays.copyOf(ids, 2 * doc);
+        }
+        ids[doc] = id;
+        return documents.add(document, length);
+    }
+
+    /**
+     * Private method that returns the posting list of a term.
+     *
+     * @param term   A normalized term.
+     * @param create Whether to add an empty list if the term has none.
+     * @return the term's posting list, or null if it has none and create is false.
+     */
+    private PostingList postings(String term, boolean create) {
+        PostingList postings = index.get(term);
+        if (postings == null && create) {
+            postings = new PostingList(positions);
+            index.put(term, postings);
+        }
+        return postings;
+    }
+}
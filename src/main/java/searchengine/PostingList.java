@@ -0,0 +1,544 @@
+package searchengine;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * A compressed list of strictly increasing document IDs, each with the
+ * number of times the term occurs in that document. Each posting is stored
+ * as the variable-byte encoded gap from the previous ID followed by the
+ * frequency, so a posting usually takes two bytes. Every SKIP_INTERVAL
+ * postings, a skip entry records where the next block starts so that a
+ * Cursor can jump over whole blocks without decoding them.
+ * <p>
+ * A list can also store where in each document the term occurs. Positions
+ * are variable-byte encoded gaps kept apart from the postings, and each
+ * posting only adds the number of bytes its positions take, so walking the
+ * postings never decodes a position; a Cursor decodes them only on request.
+ * <p>
+ * The encoded postings and skip entries are plain buffers, so a list can be
+ * built on the heap or read straight out of a memory-mapped segment file.
+ * Lists read from a segment are read-only.
+ */
+class PostingList {
+
+    /** Cursor position once every posting has been consumed. */
+    static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    // Number of postings in each block between skip entries
+    private static final int SKIP_INTERVAL = 64;
+
+    // Variable-byte encoded gap from the previous document ID, then frequency, per posting
+    private ByteBuffer bytes;
+    // Number of bytes of 'bytes' in use
+    private int length;
+    // Number of postings in this list
+    private int size;
+    // Last document ID added, or -1 if this list is empty
+    private int last;
+    // Largest frequency of any posting
+    private int maxFrequency;
+    // Smallest length of any document in this list
+    private int minLength;
+    // skipDocs[b] is the last document ID before block b + 1, which starts at skipOffsets[b]
+    private IntBuffer skipDocs;
+    private IntBuffer skipOffsets;
+    // Variable-byte encoded gaps between the positions of each posting, or null if not stored
+    private ByteBuffer positions;
+    // Number of bytes of 'positions' in use
+    private int positionLength;
+    // skipPositions[b] is where the positions of block b + 1 start, or null if not stored
+    private IntBuffer skipPositions;
+
+    /**
+     * Constructs a new, empty PostingList that does not store positions.
+     */
+    PostingList() {
+        this(false);
+    }
+
+    /**
+     * Constructs a new, empty PostingList.
+     *
+     * @param positions Whether to store where in each document the term occurs.
+     */
+    PostingList(boolean positions) {
+        bytes = ByteBuffer.allocate(4);
+        skipDocs = IntBuffer.allocate(0);
+        skipOffsets = IntBuffer.allocate(0);
+        if (positions) {
+            this.positions = ByteBuffer.allocate(4);
+            skipPositions = IntBuffer.allocate(0);
+        }
+        last = -1;
+        minLength = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Constructs a read-only PostingList over columns previously returned by
+     * bytes(), skipDocs(), skipOffsets(), positions() and skipPositions().
+     *
+     * @param bytes         The encoded postings.
+     * @param skipDocs      The document ID before each block after the first.
+     * @param skipOffsets   The offset in bytes of each block after the first.
+     * @param positions     The encoded positions, or null if not stored.
+     * @param skipPositions The offset in positions of each block after the
+     *                      first, or null if positions are not stored.
+     * @param size          The number of postings.
+     * @param maxFrequency  The largest frequency of any posting.
+     * @param minLength     The smallest length of any document in the list.
+     */
+    PostingList(ByteBuffer bytes, IntBuffer skipDocs, IntBuffer skipOffsets,
+                ByteBuffer positions, IntBuffer skipPositions, int size, int maxFrequency,
+                int minLength) {
+        this.bytes = bytes.asReadOnlyBuffer();
+        this.length = bytes.limit();
+        this.skipDocs = skipDocs;
+        this.skipOffsets = skipOffsets;
+        if (positions != null) {
+            this.positions = positions.asReadOnlyBuffer();
+            this.positionLength = positions.limit();
+            this.skipPositions = skipPositions;
+        }
+        this.size = size;
+        this.last = NO_MORE_DOCS;
+        this.maxFrequency = maxFrequency;
+        this.minLength = minLength;
+    }
+
+    /**
+     * Appends a posting to the end of a list that does not store positions.
+     *
+     * @param doc            A document ID greater than every ID already in this list.
+     * @param frequency      The number of times the term occurs in the document.
+     * @param documentLength The number of terms in the document.
+     * @throws IllegalArgumentException if doc is not greater than the last ID,
+     *                                  or frequency is not positive.
+     * @throws IllegalStateException    if this list was read from a segment,
+     *                                  or stores positions.
+     */
+    void add(int doc, int frequency, int documentLength) {
+        if (positions != null) {
+            throw new IllegalStateException("this list needs the positions of each posting");
+        }
+        add(doc, frequency, null, documentLength);
+    }
+
+    /**
+     * Appends a posting to the end of this list. A list that does not store
+     * positions only keeps how many there are.
+     *
+     * @param doc            A document ID greater than every ID already in this list.
+     * @param positions      Where the term occurs in the document, in increasing order.
+     * @param documentLength The number of terms in the document.
+     * @throws IllegalArgumentException if doc is not greater than the last ID,
+     *                                  or positions is empty, negative or not
+     *                                  increasing.
+     * @throws IllegalStateException    if this list was read from a segment.
+     */
+    void add(int doc, int[] positions, int documentLength) {
+        for (int i = 0; i < positions.length; i += 1) {
+            if (positions[i] < (i == 0 ? 0 : positions[i - 1] + 1)) {
+                throw new IllegalArgumentException("positions must be increasing and not negative");
+            }
+        }
+        add(doc, positions.length, this.positions == null ? null : positions, documentLength);
+    }
+
+    /**
+     * Appends every posting of another list to the end of this one.
+     *
+     * @param other  A list whose IDs, plus offset, are all greater than the
+     *               IDs in this one.
+     * @param offset The amount added to each of other's IDs.
+     * @throws IllegalArgumentException if other starts at or before the last
+     *                                  ID, or this list stores positions and
+     *                                  other does not.
+     */
+    void addAll(PostingList other, int offset) {
+        if (positions != null && other.positions == null) {
+            throw new IllegalArgumentException("other does not store positions");
+        }
+        Cursor cursor = other.cursor();
+        for (int doc = cursor.next(); doc != NO_MORE_DOCS; doc = cursor.next()) {
+            add(doc + offset, cursor.frequency(), positions == null ? null : cursor.positions(),
+                other.minLength);
+        }
+    }
+
+    /**
+     * Returns the number of documents in this list.
+     *
+     * @return the number of postings.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the largest frequency of any posting, which bounds the score
+     * any document in this list can get from the term.
+     *
+     * @return the maximum frequency, or 0 if this list is empty.
+     */
+    int maxFrequency() {
+        return maxFrequency;
+    }
+
+    /**
+     * Returns the length of the shortest document in this list.
+     *
+     * @return the minimum document length, or Integer.MAX_VALUE if this list
+     * is empty.
+     */
+    int minLength() {
+        return minLength;
+    }
+
+    /**
+     * Returns whether this list stores where in each document the term occurs.
+     *
+     * @return true if Cursor.positions can be called.
+     */
+    boolean hasPositions() {
+        return positions != null;
+    }
+
+    /**
+     * Returns the encoded postings, so that they can be saved in a segment.
+     *
+     * @return a read-only view of the bytes in use.
+     */
+    ByteBuffer bytes() {
+        return view(bytes, length);
+    }
+
+    /**
+     * Returns the document ID before each block after the first.
+     *
+     * @return a read-only view of the skip entries' IDs.
+     */
+    IntBuffer skipDocs() {
+        return skipColumn(skipDocs);
+    }
+
+    /**
+     * Returns the offset in bytes() of each block after the first.
+     *
+     * @return a read-only view of the skip entries' offsets.
+     */
+    IntBuffer skipOffsets() {
+        return skipColumn(skipOffsets);
+    }
+
+    /**
+     * Returns the encoded positions, so that they can be saved in a segment.
+     *
+     * @return a read-only view of the bytes in use, or null if this list does
+     * not store positions.
+     */
+    ByteBuffer positions() {
+        return positions == null ? null : view(positions, positionLength);
+    }
+
+    /**
+     * Returns the offset in positions() of each block after the first.
+     *
+     * @return a read-only view of the skip entries' position offsets, or null
+     * if this list does not store positions.
+     */
+    IntBuffer skipPositions() {
+        return positions == null ? null : skipColumn(skipPositions);
+    }
+
+    /**
+     * Returns a new Cursor positioned before the first posting.
+     *
+     * @return a cursor over this list's document IDs.
+     */
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Private method that appends a posting, and its positions if this list
+     * stores them.
+     *
+     * @param doc            A document ID greater than every ID already in this list.
+     * @param frequency      The number of times the term occurs in the document.
+     * @param positions      Where the term occurs, or null if this list does
+     *                       not store positions.
+     * @param documentLength The number of terms in the document.
+     * @throws IllegalArgumentException if doc is not greater than the last ID,
+     *                                  or frequency is not positive.
+     * @throws IllegalStateException    if this list was read from a segment.
+     */
+    private void add(int doc, int frequency, int[] positions, int documentLength) {
+        if (bytes.isReadOnly()) {
+            throw new IllegalStateException("cannot add to a list read from a segment");
+        } else if (doc <= last) {
+            throw new IllegalArgumentException("document IDs must be added in increasing order");
+        } else if (frequency <= 0) {
+            throw new IllegalArgumentException("frequency must be positive");
+        }
+        if (size > 0 && size % SKIP_INTERVAL == 0) {
+            addSkip();
+        }
+        int start = positionLength;
+        if (positions != null) {
+            this.positions = reserve(this.positions, positionLength, 5 * frequency);
+            for (int i = 0; i < frequency; i += 1) {
+                positionLength = write(this.positions, positionLength,
+                                       positions[i] - (i == 0 ? 0 : positions[i - 1]));
+            }
+        }
+        bytes = reserve(bytes, length, 15);
+        length = write(bytes, length, doc - last);
+        length = write(bytes, length, frequency);
+        if (positions != null) {
+            length = write(bytes, length, positionLength - start);
+        }
+        last = doc;
+        size += 1;
+        maxFrequency = Math.max(maxFrequency, frequency);
+        minLength = Math.min(minLength, documentLength);
+    }
+
+    /**
+     * Private method that returns a read-only view of the bytes in use of a
+     * buffer.
+     *
+     * @param buffer Either byte column.
+     * @param used   The number of bytes of the column in use.
+     * @return the first used bytes of the column.
+     */
+    private static ByteBuffer view(ByteBuffer buffer, int used) {
+        ByteBuffer result = buffer.asReadOnlyBuffer();
+        result.position(0).limit(used);
+        return result;
+    }
+
+    /**
+     * Private method that returns a read-only view of the entries of a skip
+     * column that are in use.
+     *
+     * @param column Any skip column.
+     * @return the first skips() entries of the column.
+     */
+    private IntBuffer skipColumn(IntBuffer column) {
+        IntBuffer result = column.asReadOnlyBuffer();
+        result.position(0).limit(skips());
+        return result;
+    }
+
+    /**
+     * Private method that returns the number of skip entries.
+     *
+     * @return one entry per block after the first.
+     */
+    private int skips() {
+        return size == 0 ? 0 : (size - 1) / SKIP_INTERVAL;
+    }
+
+    /**
+     * Private method that grows a heap buffer to fit more bytes.
+     *
+     * @param buffer The buffer to grow.
+     * @param used   The number of bytes of the buffer in use.
+     * @param extra  The number of bytes about to be written.
+     * @return the buffer, or a larger copy of it.
+     */
+    private static ByteBuffer reserve(ByteBuffer buffer, int used, int extra) {
+        if (used + extra <= buffer.capacity()) {
+            return buffer;
+        }
+        return ByteBuffer.wrap(Arrays.copyOf(buffer.array(),
+                                             Math.max(used + extra, 2 * buffer.capacity())));
+    }
+
+    /**
+     * Private method that writes a non-negative int in variable-byte form.
+     *
+     * @param buffer The buffer to write to, with room for five more bytes.
+     * @param offset The offset to write at.
+     * @param value  The value to write.
+     * @return the offset after the written bytes.
+     */
+    private static int write(ByteBuffer buffer, int offset, int value) {
+        while (value >= 0x80) {
+            buffer.put(offset++, (byte) (value | 0x80));
+            value >>>= 7;
+        }
+        buffer.put(offset++, (byte) value);
+        return offset;
+    }
+
+    /**
+     * Private method that records a skip entry for the block starting at the
+     * next posting added.
+     */
+    private void addSkip() {
+        int block = size / SKIP_INTERVAL - 1;
+        if (block == skipDocs.capacity()) {
+            int capacity = Math.max(4, 2 * block);
+            skipDocs = IntBuffer.wrap(Arrays.copyOf(skipDocs.array(), capacity));
+            skipOffsets = IntBuffer.wrap(Arrays.copyOf(skipOffsets.array(), capacity));
+            if (positions != null) {
+                skipPositions = IntBuffer.wrap(Arrays.copyOf(skipPositions.array(), capacity));
+            }
+        }
+        skipDocs.put(block, last);
+        skipOffsets.put(block, length);
+        if (positions != null) {
+            skipPositions.put(block, positionLength);
+        }
+    }
+
+    /**
+     * Iterates over the document IDs of a PostingList in increasing order.
+     * A new cursor is positioned before the first posting.
+     */
+    class Cursor {
+        // Current document ID, -1 before the first posting
+        private int doc = -1;
+        // Frequency of the current posting
+        private int frequency;
+        // Index of the current posting
+        private int index = -1;
+        // Offset in 'bytes' of the next posting
+        private int offset;
+        // Offset in 'positions' of the current posting's positions, then of the next posting's
+        private int positionOffset;
+        private int nextPositionOffset;
+
+        /**
+         * Returns the current document ID.
+         *
+         * @return the current ID, -1 before the first call to next or advance,
+         * or NO_MORE_DOCS once the list is exhausted.
+         */
+        int doc() {
+            return doc;
+        }
+
+        /**
+         * Returns the frequency of the current posting.
+         *
+         * @return the number of times the term occurs in the current document.
+         */
+        int frequency() {
+            return frequency;
+        }
+
+        /**
+         * Decodes where the term occurs in the current document.
+         *
+         * @return the positions of the term, in increasing order.
+         * @throws IllegalStateException if the list does not store positions.
+         */
+        int[] positions() {
+            if (positions == null) {
+                throw new IllegalStateException("this list does not store positions");
+            }
+            int[] result = new int[frequency];
+            int position = 0;
+            int at = positionOffset;
+            for (int i = 0; i < frequency; i += 1) {
+                int value = 0;
+                for (int shift = 0; ; shift += 7) {
+                    byte b = positions.get(at++);
+                    value |= (b & 0x7F) << shift;
+                    if (b >= 0) {
+                        break;
+                    }
+                }
+                position += value;
+                result[i] = position;
+            }
+            return result;
+        }
+
+        /**
+         * Moves to the next posting.
+         *
+         * @return the new current document ID, or NO_MORE_DOCS if there is none.
+         */
+        int next() {
+            if (index + 1 >= size) {
+                index = size;
+                doc = NO_MORE_DOCS;
+                return doc;
+            }
+            index += 1;
+            doc += read();
+            frequency = read();
+            if (positions != null) {
+                positionOffset = nextPositionOffset;
+                nextPositionOffset += read();
+            }
+            return doc;
+        }
+
+        /**
+         * Moves to the first posting whose ID is at least target. Never moves
+         * backwards. Gallops over the skip entries to the last block that can
+         * hold target, then decodes that block.
+         *
+         * @param target The smallest document ID to stop at.
+         * @return the new current document ID, or NO_MORE_DOCS if there is none.
+         */
+        int advance(int target) {
+            if (doc >= target) {
+                return doc;
+            }
+            int blocks = skips();
+            // Skip entry b begins block b + 1; only entries past the current block help
+            int lo = (index + 1) / SKIP_INTERVAL;
+            if (lo < blocks && skipDocs.get(lo) < target) {
+                // Gallop to bracket the last entry before target, then binary search
+                int step = 1;
+                int hi = lo + 1;
+                while (hi < blocks && skipDocs.get(hi) < target) {
+                    lo = hi;
+                    step *= 2;
+                    hi = Math.min(blocks, lo + step);
+                }
+                while (hi - lo > 1) {
+                    int mid = (lo + hi) >>> 1;
+                    if (skipDocs.get(mid) < target) {
+                        lo = mid;
+                    } else {
+                        hi = mid;
+                    }
+                }
+                doc = skipDocs.get(lo);
+                offset = skipOffsets.get(lo);
+                if (positions != null) {
+                    nextPositionOffset = skipPositions.get(lo);
+                }
+                index = (lo + 1) * SKIP_INTERVAL - 1;
+            }
+            while (doc < target) {
+                next();
+            }
+            return doc;
+        }
+
+        /**
+         * Private method that decodes the variable-byte int at the offset.
+         *
+         * @return the decoded value.
+         */
+        private int read() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes.get(offset++);
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
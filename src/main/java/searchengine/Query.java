@@ -0,0 +1,308 @@
+package searchengine;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A parsed search query: the normalized terms to look up, and the clauses
+ * that constrain where some of them occur. Text inside double quotes is a
+ * phrase, whose terms must occur next to each other in order. Two terms
+ * joined by NEAR/k, as in "seattle NEAR/3 rain", must occur within k
+ * positions of each other, in either order. A NEAR/k without a term on
+ * both sides is ignored.
+ */
+class Query {
+
+    // Every distinct term of the query, in the order they first appear
+    private final List<String> terms;
+    // Constraints on the positions of some of the terms
+    private final List<Clause> clauses;
+    // Every distinct term that some clause constrains
+    private final List<String> clauseTerms;
+
+    /**
+     * Private constructor for a Query with the given parts.
+     *
+     * @param terms       The distinct terms of the query.
+     * @param clauses     The positional clauses of the query.
+     * @param clauseTerms The distinct terms of the clauses.
+     */
+    private Query(List<String> terms, List<Clause> clauses, List<String> clauseTerms) {
+        this.terms = terms;
+        this.clauses = clauses;
+        this.clauseTerms = clauseTerms;
+    }
+
+    /**
+     * Parses a query. Terms are normalized exactly as documents are, and
+     * quotes and NEAR/k operators need not be separated by spaces from the
+     * terms around them.
+     *
+     * @param text Any non-null string.
+     * @return the parsed query.
+     */
+    static Query parse(String text) {
+        Tokenizer tokenizer = new Tokenizer();
+        Set<String> terms = new LinkedHashSet<>();
+        List<Clause> clauses = new ArrayList<>();
+        Set<String> clauseTerms = new LinkedHashSet<>();
+        int start = 0;
+        boolean quoted = false;
+        while (start <= text.length()) {
+            int end = text.indexOf('"', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            String piece = text.substring(start, end);
+            if (quoted) {
+                List<String> phrase = new ArrayList<>();
+                tokenizer.tokenize(piece, phrase::add);
+                terms.addAll(phrase);
+                if (phrase.size() > 1) {
+                    clauses.add(new Phrase(phrase));
+                    clauseTerms.addAll(phrase);
+                }
+            } else {
+                parseUnquoted(tokenizer, piece, terms, clauses, clauseTerms);
+            }
+            quoted = !quoted;
+            start = end + 1;
+        }
+        return new Query(List.copyOf(terms), clauses, List.copyOf(clauseTerms));
+    }
+
+    /**
+     * Returns every distinct term of this query.
+     *
+     * @return the normalized terms, in the order they first appear.
+     */
+    List<String> terms() {
+        return terms;
+    }
+
+    /**
+     * Returns the constraints on where the terms occur.
+     *
+     * @return the phrases and NEAR/k clauses of this query.
+     */
+    List<Clause> clauses() {
+        return clauses;
+    }
+
+    /**
+     * Returns every distinct term that some clause constrains, which a
+     * document must contain to satisfy every clause.
+     *
+     * @return the normalized terms of the clauses.
+     */
+    List<String> clauseTerms() {
+        return clauseTerms;
+    }
+
+    /**
+     * Returns a normalized form of this query. Two queries have the same key
+     * exactly when they have the same terms in the same order and the same
+     * clauses, so they always have the same results.
+     *
+     * @return the terms separated by spaces, followed by each clause.
+     */
+    String key() {
+        StringBuilder key = new StringBuilder(String.join(" ", terms));
+        List<String> rendered = new ArrayList<>(clauses.size());
+        for (Clause clause : clauses) {
+            rendered.add(clause.toString());
+        }
+        // Clauses must all match whatever their order, so the order is not part of the key
+        rendered.sort(null);
+        for (String clause : rendered) {
+            key.append(" | ").append(clause);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Private method that parses text outside quotes: terms, each of which
+     * may be joined to the next by a NEAR/k operator.
+     *
+     * @param tokenizer   Normalizes each word.
+     * @param text        Text without quotes.
+     * @param terms       Receives each term.
+     * @param clauses     Receives each NEAR/k clause.
+     * @param clauseTerms Receives the terms of each NEAR/k clause.
+     */
+    private static void parseUnquoted(Tokenizer tokenizer, String text, Set<String> terms,
+                                      List<Clause> clauses, Set<String> clauseTerms) {
+        List<String> term = new ArrayList<>(1);
+        String previous = null;
+        int distance = 0;
+        int start = 0;
+        while (start < text.length()) {
+            if (Tokenizer.isWhitespace(text.charAt(start))) {
+                start += 1;
+                continue;
+            }
+            int end = start;
+            while (end < text.length() && !Tokenizer.isWhitespace(text.charAt(end))) {
+                end += 1;
+            }
+            String word = text.substring(start, end);
+            start = end;
+            int near = distance(word);
+            if (near > 0) {
+                distance = previous == null ? 0 : near;
+                continue;
+            }
+            term.clear();
+            tokenizer.tokenize(word, term::add);
+            String current = term.isEmpty() ? null : term.get(0);
+            if (current != null) {
+                terms.add(current);
+                if (distance > 0) {
+                    clauses.add(new Near(previous, current, distance));
+                    clauseTerms.add(previous);
+                    clauseTerms.add(current);
+                }
+            }
+            previous = current;
+            distance = 0;
+        }
+    }
+
+    /**
+     * Private method that reads the distance of a NEAR/k operator.
+     *
+     * @param word A word of the query, without whitespace.
+     * @return k if the word is NEAR/k for a positive k, otherwise 0.
+     */
+    private static int distance(String word) {
+        if (!word.startsWith("NEAR/") || word.length() == "NEAR/".length()
+            || word.length() > "NEAR/".length() + 9) {
+            return 0;
+        }
+        int k = 0;
+        for (int i = "NEAR/".length(); i < word.length(); i += 1) {
+            char c = word.charAt(i);
+            if (c < '0' || c > '9') {
+                return 0;
+            }
+            k = 10 * k + (c - '0');
+        }
+        return k;
+    }
+
+    /**
+     * A constraint on where some terms occur in a document.
+     */
+    abstract static class Clause {
+        // The terms this clause constrains, possibly with repeats
+        private final List<String> terms;
+
+        /**
+         * Constructs a clause over the given terms.
+         *
+         * @param terms The terms, in the order matches receives their positions.
+         */
+        Clause(List<String> terms) {
+            this.terms = terms;
+        }
+
+        /**
+         * Returns the terms this clause constrains.
+         *
+         * @return the terms, possibly with repeats.
+         */
+        List<String> terms() {
+            return terms;
+        }
+
+        /**
+         * Tells whether a document satisfies this clause.
+         *
+         * @param positions positions[i] holds, in increasing order, where
+         *                  terms().get(i) occurs in the document.
+         * @return true if the positions satisfy the clause.
+         */
+        abstract boolean matches(int[][] positions);
+    }
+
+    /**
+     * Terms that must occur at consecutive positions, in order.
+     */
+    private static class Phrase extends Clause {
+
+        private Phrase(List<String> terms) {
+            super(List.copyOf(terms));
+        }
+
+        /**
+         * Finds a start position p such that term i occurs at p + i for every
+         * i. Any term that has no occurrence at its place proposes the next
+         * candidate start, so each list of positions is read only once.
+         */
+        boolean matches(int[][] positions) {
+            int[] next = new int[positions.length];
+            int start = positions[0][0];
+            int i = 0;
+            while (i < positions.length) {
+                int[] list = positions[i];
+                while (next[i] < list.length && list[next[i]] < start + i) {
+                    next[i] += 1;
+                }
+                if (next[i] == list.length) {
+                    return false;
+                } else if (list[next[i]] == start + i) {
+                    i += 1;
+                } else {
+                    start = list[next[i]] - i;
+                    i = 0;
+                }
+            }
+            return true;
+        }
+
+        public String toString() {
+            return '"' + String.join(" ", terms()) + '"';
+        }
+    }
+
+    /**
+     * Two terms that must occur at most some number of positions apart.
+     */
+    private static class Near extends Clause {
+        // The greatest distance allowed between the terms
+        private final int distance;
+
+        private Near(String first, String second, int distance) {
+            super(List.of(first, second));
+            this.distance = distance;
+        }
+
+        /**
+         * Walks both lists of positions in step, always moving past the
+         * smaller position, so the closest pair is found in linear time. If
+         * both terms are the same, an occurrence never pairs with itself.
+         */
+        boolean matches(int[][] positions) {
+            int[] first = positions[0];
+            int[] second = positions[1];
+            int i = 0;
+            int j = 0;
+            while (i < first.length && j < second.length) {
+                if (first[i] != second[j] && Math.abs(first[i] - second[j]) <= distance) {
+                    return true;
+                } else if (first[i] < second[j]) {
+                    i += 1;
+                } else {
+                    j += 1;
+                }
+            }
+            return false;
+        }
+
+        public String toString() {
+            return terms().get(0) + " NEAR/" + distance + " " + terms().get(1);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package searchengine;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of query results, keyed by normalized query. Entries are
+ * evicted in least recently used order, but a new entry only replaces the
+ * least recently used one if its query has been asked for more often lately,
+ * as estimated by a small frequency sketch (TinyLFU). That keeps queries
+ * asked only once, such as the prefixes typed on the way to a popular
+ * query, from pushing popular queries out.
+ * <p>
+ * Every entry belongs to a version of the index, and a lookup or insert for
+ * a newer version empties the cache, so results never outlive an index
+ * change. All methods are thread-safe.
+ *
+ * @param <V> The type of the cached results.
+ */
+class ResultCache<V> {
+
+    // Counters of the frequency sketch, four bits each, packed sixteen to a long
+    private final long[] table;
+    // Number of increments after which every counter is halved, so old queries are forgotten
+    private final int sampleSize;
+    // Entries in least recently used order, eldest first
+    private final LinkedHashMap<String, V> entries;
+    // Maximum number of entries
+    private final int capacity;
+    // Version of the index that the entries were computed from
+    private long version;
+    // Number of increments since the counters were last halved
+    private int increments;
+    // Number of lookups that found an entry, and that did not
+    private long hits;
+    private long misses;
+
+    /**
+     * Constructs a new, empty ResultCache.
+     *
+     * @param capacity The maximum number of entries, at least 1.
+     * @throws IllegalArgumentException if capacity is less than 1.
+     */
+    ResultCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.capacity = capacity;
+        // Enough counters to tell apart the frequencies of about 8 times as many queries
+        int longs = Integer.highestOneBit(Math.max(1, capacity / 2 - 1)) * 2;
+        table = new long[longs];
+        sampleSize = 10 * capacity;
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the cached results of a query, and counts the lookup towards
+     * the query's frequency.
+     *
+     * @param key     The normalized query.
+     * @param version The current version of the index.
+     * @return the results, or null if they are not cached for this version.
+     */
+    synchronized V get(String key, long version) {
+        invalidate(version);
+        increment(key);
+        V value = entries.get(key);
+        if (value == null) {
+            misses += 1;
+        } else {
+            hits += 1;
+        }
+        return value;
+    }
+
+    /**
+     * Caches the results of a query if it is asked for more often than the
+     * entry it would evict.
+     *
+     * @param key     The normalized query.
+     * @param value   The results.
+     * @param version The version of the index the results were computed from.
+     */
+    synchronized void put(String key, V value, long version) {
+        invalidate(version);
+        if (version < this.version) {
+            return;
+        }
+        if (entries.size() < capacity || entries.containsKey(key)) {
+            entries.put(key, value);
+            return;
+        }
+        Map.Entry<String, V> eldest = entries.entrySet().iterator().next();
+        if (frequency(key) > frequency(eldest.getKey())) {
+            entries.remove(eldest.getKey());
+            entries.put(key, value);
+        }
+    }
+
+    /**
+     * Returns the fraction of lookups that found cached results.
+     *
+     * @return the hit rate, or 0 if there have been no lookups.
+     */
+    synchronized double hitRate() {
+        return hits + misses == 0 ? 0 : hits / (double) (hits + misses);
+    }
+
+    /**
+     * Returns the number of lookups that found cached results.
+     *
+     * @return the number of hits.
+     */
+    synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that did not find cached results.
+     *
+     * @return the number of misses.
+     */
+    synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of cached queries.
+     *
+     * @return the number of entries.
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Private method that empties the cache if the index has changed since
+     * its entries were computed.
+     *
+     * @param version The current version of the index.
+     */
+    private void invalidate(long version) {
+        if (version > this.version) {
+            entries.clear();
+            this.version = version;
+        }
+    }
+
+    /**
+     * Private method that adds one to the counters of a key, halving every
+     * counter once sampleSize increments have been made.
+     *
+     * @param key A normalized query.
+     */
+    private void increment(String key) {
+        int hash = spread(key.hashCode());
+        for (int i = 0; i < 4; i += 1) {
+            int index = index(hash, i);
+            int shift = shift(hash, i);
+            if (((table[index] >>> shift) & 0xF) < 0xF) {
+                table[index] += 1L << shift;
+            }
+        }
+        increments += 1;
+        if (increments == sampleSize) {
+            for (int i = 0; i < table.length; i += 1) {
+                table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+            }
+            increments /= 2;
+        }
+    }
+
+    /**
+     * Private method that estimates how often a key has been looked up
+     * recently: the smallest of its four counters, which can only
+     * overestimate.
+     *
+     * @param key A normalized query.
+     * @return the estimated frequency, from 0 to 15.
+     */
+    private int frequency(String key) {
+        int hash = spread(key.hashCode());
+        int frequency = 0xF;
+        for (int i = 0; i < 4; i += 1) {
+            frequency = Math.min(frequency, (int) (table[index(hash, i)] >>> shift(hash, i)) & 0xF);
+        }
+        return frequency;
+    }
+
+    /**
+     * Private method that locates the long holding a key's i-th counter.
+     *
+     * @param hash The key's spread hash.
+     * @param i    Which of the key's four counters.
+     * @return an index into table.
+     */
+    private int index(int hash, int i) {
+        int h = (hash + i * 0x9E3779B9) * 0x85EBCA6B;
+        return (h ^ (h >>> 16)) & (table.length - 1);
+    }
+
+    /**
+     * Private method that locates a key's i-th counter within its long. Each
+     * of the four counters uses its own quarter of the long.
+     *
+     * @param hash The key's spread hash.
+     * @param i    Which of the key's four counters.
+     * @return the bit offset of the counter.
+     */
+    private static int shift(int hash, int i) {
+        return (i << 4) + (((hash >>> (i << 3)) & 3) << 2);
+    }
+
+    /**
+     * Private method that mixes the bits of a hash code, since String hash
+     * codes of similar queries differ mostly in their low bits.
+     *
+     * @param hash A hash code.
+     * @return the mixed hash.
+     */
+    private static int spread(int hash) {
+        int h = hash * 0x7FEB352D;
+        h ^= h >>> 15;
+        h *= 0x846CA68B;
+        return h ^ (h >>> 16);
+    }
+}
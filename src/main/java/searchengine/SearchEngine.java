@@ -1,10 +1,27 @@
 package searchengine;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Kevin Paulsen
@@ -15,134 +32,998 @@ import java.util.Set;
  * scanning through many documents for keywords. Add documents to this
  * Search Engine, and this class can be receive a search query and scan
  * all provided documents. It will then return all documents that contain
- * all of the given query terms.
+ * all of the given query terms, or the documents that best match the query
+ * terms ranked by BM25. An engine that stores positions also answers
+ * "quoted phrases" and NEAR/k queries; without positions, each of them
+ * only requires all of its terms.
+ * <p>
+ * Documents can be indexed and deleted while queries run. Indexed documents
+ * and deletes are buffered, and become searchable together at the next
+ * refresh. Every query searches the snapshot published by the latest
+ * refresh without taking a lock, and segments are merged in the background.
  */
 public class SearchEngine {
 
-    // Maps a term to the set of documents containing that term
-    private final Map<String, Set<String>> index;
+    // Name of the file listing the live segment files of an index directory, oldest first
+    private static final String MANIFEST = "segments";
+    // Two segments are merged once the older is at most this many times larger
+    private static final int MERGE_FACTOR = 2;
+    // Largest number of bytes of documents and postings that a merge produces
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+    // Merges segments in the background for every SearchEngine
+    private static final ExecutorService MERGER = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "segment-merger");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Directory holding the segment files, or null if this engine is only kept in memory
+    private final Path directory;
+    // Whether new segments store where in each document each term occurs
+    private final boolean positions;
+    // Searchable parts of the index as of the last refresh. Replaced rather than modified, so
+    // queries read a consistent snapshot without locking
+    private volatile List<Part> parts;
+    // Number of times parts has been replaced, which is written after parts
+    private volatile long version;
+    // Documents indexed since the last refresh: the one with ID id is in buffer[id % buffer.length]
+    private final MemorySegment[] buffer;
+    // IDs of the documents deleted since the last refresh
+    private final BitSet pendingDeletes;
+    // ID of the next document indexed
+    private int nextId;
+    // Number in the name of the next segment or deletes file
+    private int generation;
+    // True while a merge is scheduled or running
+    private final AtomicBoolean merging;
 
     /**
      * Constructs a new SearchEngine initially with an empty InvertedIndex.
      */
     public SearchEngine() {
-        index = new HashMap<>();
+        this(1);
+    }
+
+    /**
+     * Constructs a new SearchEngine whose documents are partitioned by ID
+     * across the given number of independent in-memory segments. Queries
+     * search every shard in parallel and merge their results.
+     *
+     * @param shards The number of shards, at least 1.
+     * @throws IllegalArgumentException if shards is less than 1.
+     */
+    public SearchEngine(int shards) {
+        this(shards, false);
+    }
+
+    /**
+     * Constructs a new SearchEngine with the given number of shards that can
+     * also store where in each document each term occurs. Positions take
+     * about as much space as the rest of the index, but are needed to answer
+     * phrase and NEAR/k queries.
+     *
+     * @param shards    The number of shards, at least 1.
+     * @param positions Whether to store positions.
+     * @throws IllegalArgumentException if shards is less than 1.
+     */
+    public SearchEngine(int shards, boolean positions) {
+        this(shards, positions, null, List.of(), 0, 0);
+    }
+
+    /**
+     * Private constructor for a SearchEngine over the given flushed segments.
+     *
+     * @param shards     The number of in-memory shards, at least 1.
+     * @param positions  Whether new segments store positions.
+     * @param directory  The directory holding the segment files, or null.
+     * @param parts      The flushed segments, oldest first.
+     * @param nextId     The ID of the next document indexed.
+     * @param generation The number in the name of the next segment file.
+     * @throws IllegalArgumentException if shards is less than 1.
+     */
+    private SearchEngine(int shards, boolean positions, Path directory, List<Part> parts,
+                         int nextId, int generation) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be at least 1");
+        }
+        this.directory = directory;
+        this.positions = positions;
+        this.parts = parts;
+        this.buffer = new MemorySegment[shards];
+        for (int i = 0; i < shards; i += 1) {
+            this.buffer[i] = new MemorySegment(positions);
+        }
+        this.pendingDeletes = new BitSet();
+        this.nextId = nextId;
+        this.generation = generation;
+        this.merging = new AtomicBoolean();
+    }
+
+    /**
+     * Opens the index stored in a directory, creating an empty one if the
+     * directory holds none. The segments are memory-mapped rather than read,
+     * so opening takes the same time whatever the size of the index, and the
+     * index can be larger than the heap. Documents indexed afterwards are
+     * kept in memory until the next flush.
+     *
+     * @param directory The directory holding the segment files.
+     * @param shards    The number of in-memory shards, at least 1.
+     * @param positions Whether segments flushed from now on store positions.
+     *                  Phrase and NEAR/k queries fail on any segment without them.
+     * @return an engine searching every document flushed to the directory.
+     * @throws IOException if the directory cannot be read.
+     * @throws IllegalArgumentException if shards is less than 1.
+     */
+    public static SearchEngine open(Path directory, int shards, boolean positions)
+            throws IOException {
+        Files.createDirectories(directory);
+        Path manifest = directory.resolve(MANIFEST);
+        List<String> lines = Files.exists(manifest) ? Files.readAllLines(manifest)
+                                                    : List.of();
+        // The first line is the next document ID, then each segment file and its deletes file
+        Set<String> names = new HashSet<>();
+        List<Part> parts = new ArrayList<>();
+        int nextId = 0;
+        int generation = 0;
+        for (int i = 0; i < lines.size(); i += 1) {
+            if (i == 0) {
+                nextId = parse(lines.get(i), manifest);
+                continue;
+            }
+            String[] files = lines.get(i).split(" ");
+            MappedSegment segment = MappedSegment.open(directory.resolve(files[0]));
+            BitSet deleted = new BitSet();
+            if (files.length > 1) {
+                deleted = BitSet.valueOf(Files.readAllBytes(directory.resolve(files[1])));
+            }
+            parts.add(new Part(segment, deleted, -1, files.length > 1 ? files[1] : null));
+            for (String name : files) {
+                names.add(name);
+                generation = Math.max(generation, generation(name) + 1);
+            }
+        }
+        // Remove files written by merges or flushes that never reached the manifest
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*")) {
+            for (Path file : files) {
+                if (!names.contains(file.getFileName().toString())) {
+                    Files.delete(file);
+                }
+            }
+        }
+        return new SearchEngine(shards, positions, directory, List.copyOf(parts), nextId,
+                                generation);
     }
 
     /**
      * Package private method that Accepts a document and indexes each term,
-     * or word, in the document and maps it to the document itself. Words are
-     * separated with one or more spaces.
+     * or word, in the document and maps it to the document's ID. Words are
+     * separated with one or more spaces. The document becomes searchable at
+     * the next refresh.
      *
      * @param document Any string with words to index.
+     * @return the document's ID, which is greater than that of every
+     * document indexed before it.
      */
-    void index(String document) {
-        for (String term : split(document)) {
-            Set<String> pageSet = index.get(term);
-            if (pageSet == null) {
-                pageSet = new HashSet<>();
-                index.put(term, pageSet);
+    int index(String document) {
+        Map<String, int[]> terms = split(document);
+        synchronized (this) {
+            int id = nextId;
+            buffer[id % buffer.length].add(document, id, terms, length(terms));
+            nextId += 1;
+            return id;
+        }
+    }
+
+    /**
+     * Package private method that indexes many documents at once, in the
+     * given order, using every core. The documents are cut into one
+     * contiguous chunk per core; each chunk is tokenized into its own partial
+     * segment for every shard, and the partial segments are then appended to
+     * the shards in chunk order, so that posting lists stay sorted by ID.
+     * The documents become searchable at the next refresh.
+     *
+     * @param documents The documents to index.
+     * @return the ID of the first document; the others follow it in order.
+     */
+    synchronized int indexAll(List<String> documents) {
+        int start = nextId;
+        int shards = buffer.length;
+        int chunks = Math.max(1, Math.min(documents.size(),
+                                          Runtime.getRuntime().availableProcessors()));
+        List<MemorySegment[]> partials = IntStream.range(0, chunks).parallel().mapToObj(chunk -> {
+            MemorySegment[] partial = new MemorySegment[shards];
+            for (int i = 0; i < partial.length; i += 1) {
+                partial[i] = new MemorySegment(positions);
             }
-            pageSet.add(document);
+            int from = (int) ((long) documents.size() * chunk / chunks);
+            int to = (int) ((long) documents.size() * (chunk + 1) / chunks);
+            for (int i = from; i < to; i += 1) {
+                Map<String, int[]> terms = split(documents.get(i));
+                partial[(start + i) % shards].add(documents.get(i), start + i, terms,
+                                                  length(terms));
+            }
+            return partial;
+        }).collect(Collectors.toList());
+        IntStream.range(0, shards).parallel().forEach(shard -> {
+            for (MemorySegment[] partial : partials) {
+                buffer[shard].addAll(partial[shard]);
+            }
+        });
+        nextId += documents.size();
+        return start;
+    }
+
+    /**
+     * Package private method that deletes a document. The document stops
+     * matching queries at the next refresh, and its space is reclaimed when
+     * its segment is next merged. Until then it still counts towards the
+     * statistics that rank documents, as in most search engines.
+     *
+     * @param id The ID that index or indexAll returned for the document.
+     * @throws IllegalArgumentException if no document was given the ID.
+     */
+    synchronized void delete(int id) {
+        if (id < 0 || id >= nextId) {
+            throw new IllegalArgumentException("no document has ID " + id);
         }
+        pendingDeletes.set(id);
+    }
+
+    /**
+     * Package private method that makes every document indexed and deleted
+     * so far visible to queries. The buffered documents become new in-memory
+     * segments, which are merged in the background. Queries already running
+     * keep searching the previous snapshot.
+     */
+    synchronized void refresh() {
+        install(publish());
+        scheduleMerge();
+    }
+
+    /**
+     * Writes every document indexed since the last flush to a new segment
+     * file in this engine's directory, along with every delete, and then
+     * refreshes. Small segments are merged in the background afterwards, so
+     * that the number of segments grows only logarithmically with the number
+     * of flushes.
+     *
+     * @throws IOException if the segment cannot be written.
+     * @throws IllegalStateException if this engine has no directory.
+     */
+    synchronized void flush() throws IOException {
+        if (directory == null) {
+            throw new IllegalStateException("only an engine opened on a directory can flush");
+        }
+        List<Part> memory = new ArrayList<>();
+        List<Part> next = new ArrayList<>();
+        for (Part part : publish()) {
+            (part.shard < 0 ? next : memory).add(part);
+        }
+        if (!memory.isEmpty()) {
+            Merge merge = new Merge(memory);
+            if (merge.size() > 0) {
+                next.add(new Part(merge.write(nextPath()), new BitSet(), -1, null));
+            }
+        }
+        install(writeManifest(next));
+        scheduleMerge();
+    }
+
+    /**
+     * Package private method that returns the version of the index that
+     * queries search. The version grows whenever a refresh, flush or merge
+     * publishes a new snapshot, so results computed at one version can be
+     * reused until the version changes. Read the version before
+     * searching, so that results are never labelled with a later version
+     * than they were computed from.
+     *
+     * @return the number of snapshots published so far.
+     */
+    long version() {
+        return version;
     }
 
     /**
      * Package private method that Uses a given String 'query' to search the
      * inverted index. Each term, or word, in query is used to search for
      * documents containing that word. Words are any string of characters
-     * separated with one or more spaces. A set of documents that contain ALL
-     * of the terms in 'query' is returned.
+     * separated with one or more spaces. A list of documents that contain ALL
+     * of the terms in 'query' is returned, in the order they were indexed, so
+     * a term that no document contains makes the result empty. The documents
+     * must also contain every "quoted phrase" and every pair of terms joined
+     * by NEAR/k within k words of each other.
+     *
+     * @param query Any string with words to search.
+     * @return A list of all documents containing every word in query.
+     */
+    List<String> search(String query) {
+        Query parsed = Query.parse(query);
+        List<Part> parts = this.parts;
+        int[] ids = parts.parallelStream().flatMapToInt(part -> {
+            int[] docs = part.segment.intersect(parsed.terms(), parsed.clauses());
+            return Arrays.stream(docs).filter(doc -> !part.deleted.get(doc)).map(part.segment::id);
+        }).toArray();
+        if (parts.size() > 1) {
+            Arrays.sort(ids);
+        }
+        List<String> results = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            results.add(document(parts, id));
+        }
+        return results;
+    }
+
+    /**
+     * Package private method that returns the k documents that best match
+     * the terms in 'query', ranked by their BM25 score. A document matches if
+     * it contains ANY of the terms. Every segment and shard ranks its own
+     * documents in parallel against statistics for the whole corpus, so how
+     * the documents are split never changes the results. If the query has
+     * "quoted phrases" or NEAR/k clauses, only documents satisfying all of
+     * them match, and are ranked by every term of the query.
      *
      * @param query Any string with words to search.
-     * @return A set of all documents containing every word in query.
+     * @param k     The maximum number of documents to return.
+     * @return A list of at most k documents, best match first.
+     * @throws IllegalArgumentException if k is negative.
      */
-    Set<String> search(String query) {
-        Set<String> results = null;
+    List<String> search(String query, int k) {
+        List<Part> parts = this.parts;
+        List<String> results = new ArrayList<>();
+        for (int id : top(Query.parse(query), parts, k)) {
+            results.add(document(parts, id));
+        }
+        return results;
+    }
 
-        // Iterate though queryTerms until finished, or we have added a document to results.
-        for (String word : split(query)) {
-            Set<String> documents = index.get(word);
-            if (documents != null) {
-                results = getMatchingDocuments(results, documents);
+    /**
+     * Package private method that ranks documents exactly like search(query,
+     * k), but returns each as a Hit: only its title and preview are read
+     * from the index, so long documents cost no more than short ones.
+     *
+     * @param query Any string with words to search.
+     * @param k     The maximum number of hits to return.
+     * @return A list of at most k hits, best match first.
+     * @throws IllegalArgumentException if k is negative.
+     */
+    List<Hit> hits(String query, int k) {
+        return hits(Query.parse(query), k);
+    }
+
+    /**
+     * Package private method that returns the hits for a query that has
+     * already been parsed, as hits(String, int) does.
+     *
+     * @param query The parsed query.
+     * @param k     The maximum number of hits to return.
+     * @return A list of at most k hits, best match first.
+     * @throws IllegalArgumentException if k is negative.
+     */
+    List<Hit> hits(Query query, int k) {
+        List<Part> parts = this.parts;
+        List<Hit> results = new ArrayList<>();
+        for (int id : top(query, parts, k)) {
+            results.add(hit(parts, id));
+        }
+        return results;
+    }
+
+    /**
+     * Private method that ranks the documents of a snapshot by their BM25
+     * score against a query.
+     *
+     * @param parsed The query.
+     * @param parts  The snapshot to search.
+     * @param k      The maximum number of documents to return.
+     * @return the IDs of at most k documents, best match first.
+     * @throws IllegalArgumentException if k is negative.
+     */
+    private static int[] top(Query parsed, List<Part> parts, int k) {
+        List<String> terms = parsed.terms();
+        int count = 0;
+        long totalLength = 0;
+        for (Part part : parts) {
+            count += part.segment.size();
+            totalLength += part.segment.totalLength();
+        }
+        Bm25 scorer = new Bm25(count, count == 0 ? 0 : totalLength / (double) count);
+        double[] idf = new double[terms.size()];
+        for (int i = 0; i < idf.length; i += 1) {
+            int documentFrequency = 0;
+            for (Part part : parts) {
+                documentFrequency += part.segment.documentFrequency(terms.get(i));
+            }
+            idf[i] = scorer.idf(documentFrequency);
+        }
+        TopDocs top = new TopDocs(k);
+        List<TopDocs> partials = parts.parallelStream().map(part -> {
+            TopDocs partial = new TopDocs(k);
+            if (parsed.clauses().isEmpty()) {
+                part.segment.rank(terms, idf, scorer, partial, part.deleted);
+            } else {
+                int[] docs = part.segment.intersect(parsed.clauseTerms(), parsed.clauses());
+                part.segment.rank(terms, idf, scorer, partial, docs, part.deleted);
             }
+            return partial;
+        }).collect(Collectors.toList());
+        for (int i = 0; i < parts.size(); i += 1) {
+            top.offerAll(partials.get(i), parts.get(i).segment::id);
         }
-        return results == null ? new HashSet<>() : results;
+        return top.drain();
     }
 
     /**
-     * Private method to get all the documents that match between the
-     * two parameters 'matchingDocuments' and 'documents'. If first
-     * parameter 'matchingDocuments' is null, a new Set is returned
-     * that contains all of the documents in the second parameter
-     * 'documents'.
+     * Private method that publishes a new snapshot to queries, and only then
+     * a new version. Called with the lock held.
      *
-     * @param matchingDocuments A set of documents. Can be null, or empty.
-     * @param documents         A non-null set of documents.
-     * @return the set of documents that are in both parameters.
+     * @param next The parts of the new snapshot, oldest first.
      */
-    private Set<String> getMatchingDocuments(Set<String> matchingDocuments, Set<String> documents) {
-        final Set<String> result;
-        if (matchingDocuments == null) {
-            // if matchingDocuments is null, instantiate it with 'documents'
-            result = new HashSet<>(documents);
-        } else {
-            // else, set result to the set containing all words that contain
-            //  all the documents in 'matchingDocuments, and documents.
-            result = removeNonMatchingDocuments(matchingDocuments, documents);
+    private void install(List<Part> next) {
+        parts = List.copyOf(next);
+        version += 1;
+    }
+
+    /**
+     * Private method that turns the buffered documents into parts of the
+     * index and applies the buffered deletes. Called with the lock held.
+     *
+     * @return the parts that the next snapshot should hold.
+     */
+    private List<Part> publish() {
+        List<Part> next = new ArrayList<>(parts);
+        for (int i = 0; i < buffer.length; i += 1) {
+            if (buffer[i].size() > 0) {
+                next.add(new Part(buffer[i], new BitSet(), i, null));
+                buffer[i] = new MemorySegment(positions);
+            }
         }
-        return result;
+        // Published bit sets are never modified, so each changed part gets a copy
+        BitSet[] deleted = new BitSet[next.size()];
+        for (int id = pendingDeletes.nextSetBit(0); id >= 0; id = pendingDeletes.nextSetBit(id + 1)) {
+            for (int i = 0; i < next.size(); i += 1) {
+                int doc = next.get(i).segment.indexOf(id);
+                if (doc >= 0) {
+                    if (deleted[i] == null) {
+                        deleted[i] = (BitSet) next.get(i).deleted.clone();
+                    }
+                    deleted[i].set(doc);
+                    break;
+                }
+            }
+        }
+        pendingDeletes.clear();
+        for (int i = 0; i < next.size(); i += 1) {
+            if (deleted[i] != null) {
+                Part part = next.get(i);
+                next.set(i, new Part(part.segment, deleted[i], part.shard, null));
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Private method that returns the document with the given engine-wide ID.
+     *
+     * @param parts The parts of the index that id was found in.
+     * @param id    The ID the document was given when indexed.
+     * @return the document's text.
+     */
+    private static String document(List<Part> parts, int id) {
+        for (Part part : parts) {
+            int doc = part.segment.indexOf(id);
+            if (doc >= 0) {
+                return part.segment.document(doc);
+            }
+        }
+        throw new IllegalArgumentException("no document has ID " + id);
+    }
+
+    /**
+     * Private method that returns the hit for the document with the given
+     * engine-wide ID.
+     *
+     * @param parts The parts of the index that id was found in.
+     * @param id    The ID the document was given when indexed.
+     * @return the document's title and preview.
+     */
+    private static Hit hit(List<Part> parts, int id) {
+        for (Part part : parts) {
+            int doc = part.segment.indexOf(id);
+            if (doc >= 0) {
+                return new Hit(id, part.segment.title(doc), part.segment.preview(doc));
+            }
+        }
+        throw new IllegalArgumentException("no document has ID " + id);
+    }
+
+    /**
+     * Private method that schedules a background merge unless one is
+     * already pending. A merge that finds nothing to do ends at once.
+     */
+    private void scheduleMerge() {
+        if (merging.compareAndSet(false, true)) {
+            MERGER.execute(() -> {
+                try {
+                    mergeParts();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    merging.set(false);
+                }
+                if (mergeCandidate(parts) != null) {
+                    scheduleMerge();
+                }
+            });
+        }
+    }
+
+    /**
+     * Private method that merges parts until none is worth merging. Each
+     * merge is built from a snapshot without holding the lock, so indexing,
+     * refreshes and queries continue meanwhile; documents deleted from the
+     * merged parts in the meantime are then deleted from the result too.
+     *
+     * @throws IOException if a segment cannot be written.
+     */
+    private void mergeParts() throws IOException {
+        for (List<Part> inputs = mergeCandidate(parts); inputs != null;
+             inputs = mergeCandidate(parts)) {
+            Merge merge = new Merge(inputs);
+            int shard = inputs.get(0).shard;
+            Segment merged = null;
+            if (merge.size() > 0) {
+                merged = shard < 0 ? merge.write(nextPath()) : merge.toMemory();
+            }
+            List<Path> obsolete = new ArrayList<>();
+            synchronized (this) {
+                List<Part> next = new ArrayList<>(parts);
+                int[] at = new int[inputs.size()];
+                for (int i = 0; i < at.length; i += 1) {
+                    at[i] = indexOf(next, inputs.get(i).segment);
+                }
+                if (Arrays.stream(at).anyMatch(i -> i < 0)) {
+                    // A flush replaced the inputs while they were being merged
+                    if (merged instanceof MappedSegment) {
+                        Files.delete(((MappedSegment) merged).path());
+                    }
+                    continue;
+                }
+                BitSet deleted = new BitSet();
+                for (int i = 0; i < at.length; i += 1) {
+                    BitSet since = (BitSet) next.get(at[i]).deleted.clone();
+                    since.andNot(inputs.get(i).deleted);
+                    for (int doc = since.nextSetBit(0); doc >= 0; doc = since.nextSetBit(doc + 1)) {
+                        deleted.set(merge.remap[i][doc]);
+                    }
+                }
+                Arrays.sort(at);
+                for (int i = at.length - 1; i >= 0; i -= 1) {
+                    next.remove(at[i]);
+                }
+                if (merged != null) {
+                    next.add(at[0], new Part(merged, deleted, shard, null));
+                }
+                if (shard < 0) {
+                    next = writeManifest(next);
+                    for (Part input : inputs) {
+                        obsolete.add(((MappedSegment) input.segment).path());
+                    }
+                }
+                install(next);
+            }
+            // Mappings stay valid after their files are deleted
+            for (Path path : obsolete) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Private method that picks the parts to merge next: any part with at
+     * least half its documents deleted, or else the newest pair of parts of
+     * the same kind in which the older is at most MERGE_FACTOR times larger
+     * than the newer. Segment files are only merged with segment files, and
+     * in-memory segments only with those from the same shard.
+     *
+     * @param parts The parts to choose from, oldest first.
+     * @return the parts to merge, oldest first, or null if none should be.
+     */
+    private static List<Part> mergeCandidate(List<Part> parts) {
+        for (Part part : parts) {
+            if (part.segment.size() > 0 && 2L * part.deleted.cardinality() >= part.segment.size()) {
+                return List.of(part);
+            }
+        }
+        for (int i = parts.size() - 2; i >= 0; i -= 1) {
+            Part older = parts.get(i);
+            for (int j = i + 1; j < parts.size(); j += 1) {
+                Part newer = parts.get(j);
+                if (newer.shard == older.shard) {
+                    if (older.weight() <= MERGE_FACTOR * newer.weight()
+                        && (older.shard >= 0
+                            || older.weight() + newer.weight() <= MAX_SEGMENT_BYTES)) {
+                        return List.of(older, newer);
+                    }
+                    break;
+                }
+            }
+        }
+        return null;
     }
 
     /**
-     * Private method that removes all documents in the first parameter
-     * 'matchingDocuments' that are not in the second parameter 'documents'.
+     * Private method that finds the part holding a segment.
      *
-     * @param matchingDocuments A non-null set containing documents.
-     * @param documents         A non-null set containing documents.
-     * @return the set of documents that are in both parameters.
+     * @param parts   The parts to search.
+     * @param segment The segment to find.
+     * @return the index of the part, or -1 if no part holds the segment.
      */
-    private Set<String> removeNonMatchingDocuments(Set<String> matchingDocuments,
-                                                   Set<String> documents) {
-        // Iterate though matchingDocuments
-        Iterator<String> documentIterator = matchingDocuments.iterator();
-        while (documentIterator.hasNext()) {
-            // If 'documents' does not contain the next document in matchingDocuments,
-            //  remove it from 'matchingDocuments'.
-            if (!documents.contains(documentIterator.next())) {
-                documentIterator.remove();
+    private static int indexOf(List<Part> parts, Segment segment) {
+        for (int i = 0; i < parts.size(); i += 1) {
+            if (parts.get(i).segment == segment) {
+                return i;
             }
         }
-        return matchingDocuments;
+        return -1;
+    }
+
+    /**
+     * Private method that returns the path of a new segment file.
+     *
+     * @return a path no other segment uses.
+     */
+    private synchronized Path nextPath() {
+        Path path = directory.resolve("segment-" + generation);
+        generation += 1;
+        return path;
+    }
+
+    /**
+     * Private method that parses the number in a segment or deletes file's
+     * name.
+     *
+     * @param name The name of a segment or deletes file.
+     * @return the file's generation.
+     * @throws IOException if the name is not that of a segment or deletes file.
+     */
+    private static int generation(String name) throws IOException {
+        try {
+            int end = name.endsWith(".del") ? name.length() - ".del".length() : name.length();
+            return Integer.parseInt(name.substring("segment-".length(), end));
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            throw new IOException(name + " is not a segment file", e);
+        }
+    }
+
+    /**
+     * Private method that parses the next document ID from a manifest.
+     *
+     * @param line     The first line of the manifest.
+     * @param manifest The manifest's path, for the error message.
+     * @return the next document ID.
+     * @throws IOException if the line is not a document ID.
+     */
+    private static int parse(String line, Path manifest) throws IOException {
+        try {
+            return Integer.parseInt(line);
+        } catch (NumberFormatException e) {
+            throw new IOException(manifest + " is not a search engine manifest", e);
+        }
+    }
+
+    /**
+     * Private method that atomically replaces the manifest, so that a crash
+     * leaves either the old list of segments or the new one. The deletes of
+     * every segment file that has new ones are written first, and deletes
+     * files that the new manifest does not list are removed after. Called
+     * with the lock held.
+     *
+     * @param next The parts of the new snapshot, oldest first.
+     * @return the parts, with each segment file's deletes file recorded.
+     * @throws IOException if the manifest or a deletes file cannot be written.
+     */
+    private List<Part> writeManifest(List<Part> next) throws IOException {
+        List<Part> result = new ArrayList<>(next.size());
+        List<String> lines = new ArrayList<>();
+        lines.add(Integer.toString(nextId));
+        Set<String> live = new HashSet<>();
+        for (Part part : next) {
+            if (part.shard >= 0) {
+                result.add(part);
+                continue;
+            }
+            if (part.deletesFile == null && !part.deleted.isEmpty()) {
+                Path path = nextPath();
+                path = path.resolveSibling(path.getFileName() + ".del");
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                                                            StandardOpenOption.WRITE)) {
+                    ByteBuffer bytes = ByteBuffer.wrap(part.deleted.toByteArray());
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                    channel.force(true);
+                }
+                part = new Part(part.segment, part.deleted, -1, path.getFileName().toString());
+            }
+            result.add(part);
+            String name = ((MappedSegment) part.segment).path().getFileName().toString();
+            if (part.deletesFile != null) {
+                live.add(part.deletesFile);
+                name += " " + part.deletesFile;
+            }
+            lines.add(name);
+        }
+        Path temporary = directory.resolve(MANIFEST + ".tmp");
+        Files.write(temporary, lines);
+        Files.move(temporary, directory.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*.del")) {
+            for (Path file : files) {
+                if (!live.contains(file.getFileName().toString())) {
+                    Files.delete(file);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Private method that counts the terms in a document.
+     *
+     * @param terms The document's terms, each mapped to its positions.
+     * @return the total number of terms.
+     */
+    private static int length(Map<String, int[]> terms) {
+        int length = 0;
+        for (int[] positions : terms.values()) {
+            length += positions.length;
+        }
+        return length;
     }
 
     /**
      * Private method that splits any text into each term, or word. A term is
-     * determined by any non-space characters separated by 1 or more whitespaces.
+     * determined by any non-space characters separated by 1 or more whitespaces,
+     * lowercased and without leading or trailing punctuation. The i-th term of
+     * the text is at position i.
      *
      * @param text any non-null string.
-     * @return the set of normalized terms split from the given text.
+     * @return the normalized terms split from the given text, each mapped to
+     * the positions it occurs at, in increasing order.
      */
-    private static Set<String> split(String text) {
-        Set<String> result = new HashSet<>();
-        for (String term : text.split("\\s+")) {
-            term = normalize(term);
-            if (!term.isEmpty()) {
-                result.add(term);
+    private static Map<String, int[]> split(String text) {
+        Map<String, int[]> result = new HashMap<>();
+        int[] position = new int[1];
+        // While splitting, element 0 of each array counts the positions that follow it
+        new Tokenizer().tokenize(text, term -> {
+            int[] positions = result.get(term);
+            if (positions == null) {
+                positions = new int[2];
+                result.put(term, positions);
+            } else if (positions[0] + 1 == positions.length) {
+                positions = Arrays.copyOf(positions, 2 * positions.length);
+                result.put(term, positions);
             }
+            positions[0] += 1;
+            positions[positions[0]] = position[0];
+            position[0] += 1;
+        });
+        for (Map.Entry<String, int[]> term : result.entrySet()) {
+            int[] positions = term.getValue();
+            term.setValue(Arrays.copyOfRange(positions, 1, positions[0] + 1));
         }
         return result;
     }
 
     /**
-     * Private method that normalizes the given string. A String is considered
-     * normalized if there are no leading or trailing non-alphabetic characters,
-     * and all letters are lowercase.
-     *
-     * @param s any non-null string.
-     * @return a standardized lowercase representation of the given string.
+     * A searchable segment of the index and the documents deleted from it.
+     */
+    private static class Part {
+        private final Segment segment;
+        // IDs in the segment of its deleted documents; never modified once published
+        private final BitSet deleted;
+        // Shard of the buffer an in-memory segment came from, or -1 for a segment file
+        private final int shard;
+        // Name of the file holding 'deleted', or null if it has not been written
+        private final String deletesFile;
+
+        private Part(Segment segment, BitSet deleted, int shard, String deletesFile) {
+            this.segment = segment;
+            this.deleted = deleted;
+            this.shard = shard;
+            this.deletesFile = deletesFile;
+        }
+
+        /**
+         * Returns how much merging this part costs.
+         *
+         * @return the bytes of a segment file, or the number of documents of
+         * an in-memory segment.
+         */
+        private long weight() {
+            return shard < 0 ? ((MappedSegment) segment).bytes() : segment.size();
+        }
+    }
+
+    /**
+     * The documents and posting lists of several parts combined into one
+     * segment in order of engine-wide ID, leaving out deleted documents.
      */
-    private static String normalize(String s) {
-        return s.toLowerCase().replaceAll("(^\\p{P}+\\s*)|(\\s*\\p{P}+$)", "");
+    private static class Merge {
+        private final List<Part> inputs;
+        // Merged document d is document docs[d] of input sources[d]
+        private final int[] sources;
+        private final int[] docs;
+        // remap[i][doc] is the merged document of input i's document, or -1 if it is deleted
+        private final int[][] remap;
+        // Whether every input stores positions
+        private final boolean positions;
+
+        /**
+         * Lays out the merged documents of the given parts.
+         *
+         * @param inputs The parts to merge.
+         */
+        private Merge(List<Part> inputs) {
+            this.inputs = inputs;
+            int size = 0;
+            boolean positions = true;
+            remap = new int[inputs.size()][];
+            for (int i = 0; i < remap.length; i += 1) {
+                Part part = inputs.get(i);
+                size += part.segment.size() - part.deleted.cardinality();
+                positions &= part.segment.hasPositions();
+                remap[i] = new int[part.segment.size()];
+                Arrays.fill(remap[i], -1);
+            }
+            this.positions = positions;
+            sources = new int[size];
+            docs = new int[size];
+            int[] next = new int[inputs.size()];
+            for (int d = 0; d < size; d += 1) {
+                int best = -1;
+                for (int i = 0; i < next.length; i += 1) {
+                    next[i] = inputs.get(i).deleted.nextClearBit(next[i]);
+                    if (next[i] < remap[i].length
+                        && (best < 0 || id(i, next[i]) < id(best, next[best]))) {
+                        best = i;
+                    }
+                }
+                sources[d] = best;
+                docs[d] = next[best];
+                remap[best][next[best]] = d;
+                next[best] += 1;
+            }
+        }
+
+        /**
+         * Returns the number of documents in the merged segment.
+         *
+         * @return the number of documents not deleted from any input.
+         */
+        private int size() {
+            return docs.length;
+        }
+
+        /**
+         * Writes the merged segment to a file.
+         *
+         * @param path The file to write.
+         * @return the merged segment, backed by the file.
+         * @throws IOException if the file cannot be written.
+         */
+        private MappedSegment write(Path path) throws IOException {
+            return MappedSegment.write(path, size(), this::document, this::length, this::id,
+                                       terms(), this::postings, positions);
+        }
+
+        /**
+         * Builds the merged segment on the heap.
+         *
+         * @return the merged segment.
+         */
+        private MemorySegment toMemory() {
+            return MemorySegment.of(size(), this::document, this::length, this::id, terms(),
+                                    this::postings, positions);
+        }
+
+        /**
+         * Private method that returns the text of a merged document.
+         *
+         * @param d A merged document.
+         * @return the document's text.
+         */
+        private String document(int d) {
+            return inputs.get(sources[d]).segment.document(docs[d]);
+        }
+
+        /**
+         * Private method that returns the length of a merged document.
+         *
+         * @param d A merged document.
+         * @return the number of terms in the document.
+         */
+        private int length(int d) {
+            return inputs.get(sources[d]).segment.length(docs[d]);
+        }
+
+        /**
+         * Private method that returns the engine-wide ID of a merged document.
+         *
+         * @param d A merged document.
+         * @return the ID the document was given when indexed.
+         */
+        private int id(int d) {
+            return id(sources[d], docs[d]);
+        }
+
+        /**
+         * Private method that returns the engine-wide ID of an input document.
+         *
+         * @param input The index of an input.
+         * @param doc   A document of that input.
+         * @return the ID the document was given when indexed.
+         */
+        private int id(int input, int doc) {
+            return inputs.get(input).segment.id(doc);
+        }
+
+        /**
+         * Private method that returns every term of every input.
+         *
+         * @return the union of the inputs' terms.
+         */
+        private Set<String> terms() {
+            Set<String> terms = new HashSet<>();
+            for (Part part : inputs) {
+                for (String term : part.segment.terms()) {
+                    terms.add(term);
+                }
+            }
+            return terms;
+        }
+
+        /**
+         * Private method that merges the inputs' posting lists for a term,
+         * renumbering each posting and leaving out deleted documents.
+         *
+         * @param term A normalized term.
+         * @return the term's merged posting list, which may be empty.
+         */
+        private PostingList postings(String term) {
+            int n = inputs.size();
+            PostingList.Cursor[] cursors = new PostingList.Cursor[n];
+            for (int i = 0; i < n; i += 1) {
+                PostingList postings = inputs.get(i).segment.postings(term);
+                cursors[i] = postings == null ? new PostingList().cursor() : postings.cursor();
+                cursors[i].next();
+            }
+            PostingList result = new PostingList(positions);
+            while (true) {
+                int best = -1;
+                int bestDoc = Integer.MAX_VALUE;
+                for (int i = 0; i < n; i += 1) {
+                    // Deleted documents are skipped; renumbering keeps each input's order
+                    while (cursors[i].doc() != PostingList.NO_MORE_DOCS
+                           && remap[i][cursors[i].doc()] < 0) {
+                        cursors[i].next();
+                    }
+                    if (cursors[i].doc() != PostingList.NO_MORE_DOCS
+                        && remap[i][cursors[i].doc()] < bestDoc) {
+                        best = i;
+                        bestDoc = remap[i][cursors[i].doc()];
+                    }
+                }
+                if (best < 0) {
+                    return result;
+                }
+                if (positions) {
+                    result.add(bestDoc, cursors[best].positions(), length(bestDoc));
+                } else {
+                    result.add(bestDoc, cursors[best].frequency(), length(bestDoc));
+                }
+                cursors[best].next();
+            }
+        }
     }
 }
@@ -0,0 +1,377 @@
+package searchengine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A self-contained part of a search index: some documents, numbered from 0,
+ * and the posting list of every term they contain. Each document also keeps
+ * the engine-wide ID it was given when indexed, and documents are numbered
+ * in increasing order of those IDs. Queries are evaluated against each
+ * segment on its own, using statistics for the whole corpus.
+ */
+interface Segment {
+
+    /**
+     * Returns the number of documents in this segment.
+     *
+     * @return the number of documents, which is also the first unused ID.
+     */
+    int size();
+
+    /**
+     * Returns the document with the given ID.
+     *
+     * @param doc An ID in this segment.
+     * @return the document's text.
+     */
+    String document(int doc);
+
+    /**
+     * Returns the title of the document with the given ID.
+     *
+     * @param doc An ID in this segment.
+     * @return the first line of the document.
+     */
+    String title(int doc);
+
+    /**
+     * Returns the preview of the document with the given ID, which was
+     * located when the document was indexed, so that only the preview is
+     * read.
+     *
+     * @param doc An ID in this segment.
+     * @return the start of the document's body, ending in an ellipsis if part
+     * of the body is left out.
+     */
+    String preview(int doc);
+
+    /**
+     * Returns the engine-wide ID of the document with the given ID.
+     *
+     * @param doc An ID in this segment.
+     * @return the ID the document was given when it was indexed.
+     */
+    int id(int doc);
+
+    /**
+     * Returns the length of the document with the given ID.
+     *
+     * @param doc An ID in this segment.
+     * @return the number of terms in the document.
+     */
+    int length(int doc);
+
+    /**
+     * Returns the sum of the lengths of every document in this segment.
+     *
+     * @return the total number of terms.
+     */
+    long totalLength();
+
+    /**
+     * Returns the posting list of a term.
+     *
+     * @param term A normalized term.
+     * @return the term's posting list, or null if no document contains it.
+     */
+    PostingList postings(String term);
+
+    /**
+     * Returns every term in this segment.
+     *
+     * @return the terms that have a posting list.
+     */
+    Iterable<String> terms();
+
+    /**
+     * Returns whether this segment stores where in each document its terms
+     * occur, which phrase and NEAR/k queries need.
+     *
+     * @return true if every posting list of this segment stores positions.
+     */
+    boolean hasPositions();
+
+    /**
+     * Returns the number of documents containing a term.
+     *
+     * @param term A normalized term.
+     * @return the length of the term's posting list, or 0 if it has none.
+     */
+    default int documentFrequency(String term) {
+        PostingList postings = postings(term);
+        return postings == null ? 0 : postings.size();
+    }
+
+    /**
+     * Finds the document that was given an engine-wide ID.
+     *
+     * @param id Any engine-wide ID.
+     * @return the document's ID in this segment, or -1 if it is not here.
+     */
+    default int indexOf(int id) {
+        int lo = 0;
+        int hi = size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = Integer.compare(id(mid), id);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the IDs of the documents containing every term, in increasing
+     * order. A term that no document contains makes the result empty.
+     * <p>
+     * Terms are intersected from the shortest posting list up: the rarest
+     * term proposes each candidate and the longer lists only gallop to it,
+     * so the cost follows the rarest term, not the most common one.
+     *
+     * @param terms The normalized query terms.
+     * @return the IDs of every document containing all the terms.
+     */
+    default int[] intersect(List<String> terms) {
+        List<PostingList> lists = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            PostingList postings = postings(term);
+            if (postings == null) {
+                return new int[0];
+            }
+            lists.add(postings);
+        }
+        if (lists.isEmpty()) {
+            return new int[0];
+        }
+        lists.sort(Comparator.comparingInt(PostingList::size));
+        List<PostingList.Cursor> cursors = new ArrayList<>(lists.size());
+        for (PostingList postings : lists) {
+            cursors.add(postings.cursor());
+        }
+        int[] result = new int[lists.get(0).size()];
+        int size = 0;
+        for (int id = intersect(cursors, 0); id != PostingList.NO_MORE_DOCS;
+             id = intersect(cursors, id + 1)) {
+            result[size++] = id;
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Returns the IDs of the documents containing every term and satisfying
+     * every clause, in increasing order. The clauses are only checked, and
+     * positions only decoded, for the documents that contain every term, so
+     * a phrase costs little more than the conjunction of its terms. A
+     * segment that does not store positions cannot check the clauses, so it
+     * returns that conjunction instead.
+     *
+     * @param terms   The normalized query terms, including those of every clause.
+     * @param clauses The positional clauses of the query.
+     * @return the IDs of every matching document.
+     */
+    default int[] intersect(List<String> terms, List<Query.Clause> clauses) {
+        int[] docs = intersect(terms);
+        if (clauses.isEmpty() || docs.length == 0 || !hasPositions()) {
+            return docs;
+        }
+        // One cursor per term of each clause, so a term repeated in a phrase has one per place
+        List<PostingList.Cursor[]> cursors = new ArrayList<>(clauses.size());
+        for (Query.Clause clause : clauses) {
+            PostingList.Cursor[] clauseCursors = new PostingList.Cursor[clause.terms().size()];
+            for (int i = 0; i < clauseCursors.length; i += 1) {
+                clauseCursors[i] = postings(clause.terms().get(i)).cursor();
+            }
+            cursors.add(clauseCursors);
+        }
+        int size = 0;
+        for (int doc : docs) {
+            boolean matches = true;
+            for (int c = 0; c < clauses.size() && matches; c += 1) {
+                PostingList.Cursor[] clauseCursors = cursors.get(c);
+                int[][] positions = new int[clauseCursors.length][];
+                for (int i = 0; i < positions.length; i += 1) {
+                    clauseCursors[i].advance(doc);
+                    positions[i] = clauseCursors[i].positions();
+                }
+                matches = clauses.get(c).matches(positions);
+            }
+            if (matches) {
+                docs[size++] = doc;
+            }
+        }
+        return Arrays.copyOf(docs, size);
+    }
+
+    /**
+     * Offers the given documents to 'top', scored by BM25 against the terms.
+     * Used when the documents that may match are already known, so every one
+     * of them is scored.
+     *
+     * @param terms  The normalized query terms.
+     * @param idf    The inverse document frequency of each term.
+     * @param scorer  The scorer for the whole corpus.
+     * @param top     Receives the scored documents, by their IDs in this segment.
+     * @param docs    The IDs of the documents to score, in increasing order.
+     * @param deleted The IDs of the deleted documents, which are skipped.
+     */
+    default void rank(List<String> terms, double[] idf, Bm25 scorer, TopDocs top, int[] docs,
+                      BitSet deleted) {
+        PostingList.Cursor[] cursors = new PostingList.Cursor[terms.size()];
+        for (int i = 0; i < cursors.length; i += 1) {
+            PostingList postings = postings(terms.get(i));
+            cursors[i] = postings == null ? null : postings.cursor();
+        }
+        for (int doc : docs) {
+            if (deleted.get(doc)) {
+                continue;
+            }
+            // Summed in query term order, like every other score
+            double score = 0;
+            for (int i = 0; i < cursors.length; i += 1) {
+                if (cursors[i] != null && cursors[i].advance(doc) == doc) {
+                    score += scorer.score(idf[i], cursors[i].frequency(), length(doc));
+                }
+            }
+            top.offer(doc, score);
+        }
+    }
+
+    /**
+     * Offers the documents containing ANY of the terms to 'top', scored by
+     * BM25. Uses MaxScore pruning: once the top k hold a score that the
+     * rarest terms together cannot beat, documents containing only those
+     * terms are skipped without being scored.
+     *
+     * @param terms  The normalized query terms.
+     * @param idf     The inverse document frequency of each term.
+     * @param scorer  The scorer for the whole corpus.
+     * @param top     Receives the scored documents, by their IDs in this segment.
+     * @param deleted The IDs of the deleted documents, which are skipped.
+     */
+    default void rank(List<String> terms, double[] idf, Bm25 scorer, TopDocs top,
+                      BitSet deleted) {
+        List<PostingList> lists = new ArrayList<>();
+        List<Double> listIdf = new ArrayList<>();
+        for (int i = 0; i < terms.size(); i += 1) {
+            PostingList postings = postings(terms.get(i));
+            if (postings != null) {
+                lists.add(postings);
+                listIdf.add(idf[i]);
+            }
+        }
+        int n = lists.size();
+        double[] bounds = new double[n];
+        for (int i = 0; i < n; i += 1) {
+            bounds[i] = scorer.bound(listIdf.get(i), lists.get(i));
+        }
+        // Order the terms by ascending bound, so that the non-essential terms form a prefix
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(bounds[a], bounds[b]));
+        PostingList.Cursor[] cursors = new PostingList.Cursor[n];
+        double[] termIdf = new double[n];
+        // prefixBounds[i] bounds the total score from the terms at positions 0 through i
+        double[] prefixBounds = new double[n];
+        for (int i = 0; i < n; i += 1) {
+            cursors[i] = lists.get(order[i]).cursor();
+            cursors[i].next();
+            termIdf[i] = listIdf.get(order[i]);
+            prefixBounds[i] = bounds[order[i]] + (i > 0 ? prefixBounds[i - 1] : 0);
+        }
+
+        double[] contributions = new double[n];
+        // Terms before 'essential' cannot make a document enter the top k on their own
+        int essential = 0;
+        double threshold = top.threshold();
+        while (essential < n && prefixBounds[essential] <= threshold) {
+            essential += 1;
+        }
+        while (essential < n) {
+            int doc = PostingList.NO_MORE_DOCS;
+            for (int i = essential; i < n; i += 1) {
+                doc = Math.min(doc, cursors[i].doc());
+            }
+            if (doc == PostingList.NO_MORE_DOCS) {
+                break;
+            } else if (deleted.get(doc)) {
+                for (int i = essential; i < n; i += 1) {
+                    if (cursors[i].doc() == doc) {
+                        cursors[i].next();
+                    }
+                }
+                continue;
+            }
+            // Contributions are also kept by query term and summed in that order at the end, so
+            // that a document's score never depends on how its segment ordered the terms
+            Arrays.fill(contributions, 0);
+            double score = 0;
+            for (int i = essential; i < n; i += 1) {
+                if (cursors[i].doc() == doc) {
+                    contributions[order[i]] = scorer.score(termIdf[i], cursors[i].frequency(),
+                                                           length(doc));
+                    score += contributions[order[i]];
+                    cursors[i].next();
+                }
+            }
+            for (int i = essential - 1; i >= 0 && score + prefixBounds[i] > threshold; i -= 1) {
+                if (cursors[i].advance(doc) == doc) {
+                    contributions[order[i]] = scorer.score(termIdf[i], cursors[i].frequency(),
+                                                           length(doc));
+                    score += contributions[order[i]];
+                }
+            }
+            if (score > threshold) {
+                score = 0;
+                for (double contribution : contributions) {
+                    score += contribution;
+                }
+            }
+            if (score > threshold) {
+                top.offer(doc, score);
+                threshold = top.threshold();
+                while (essential < n && prefixBounds[essential] <= threshold) {
+                    essential += 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Private method that finds the next document ID contained in every
+     * posting list. The first cursor proposes a candidate and every other
+     * cursor gallops to it; whenever one overshoots, its ID becomes the new
+     * candidate, so no list is ever scanned past a document it cannot match.
+     * Once any list runs out, so does the intersection.
+     *
+     * @param cursors A non-empty list of cursors, none past target, with the
+     *                shortest list first.
+     * @param target  The smallest document ID to consider.
+     * @return the smallest ID at least target contained in every list, or
+     * NO_MORE_DOCS if there is none.
+     */
+    private static int intersect(List<PostingList.Cursor> cursors, int target) {
+        int candidate = cursors.get(0).advance(target);
+        int i = 1;
+        while (i < cursors.size() && candidate != PostingList.NO_MORE_DOCS) {
+            int doc = cursors.get(i).advance(candidate);
+            if (doc == candidate) {
+                i += 1;
+            } else {
+                candidate = cursors.get(0).advance(doc);
+                i = 1;
+            }
+        }
+        return candidate;
+    }
+}
@@ -3,42 +3,96 @@ package searchengine;
 import java.util.*;
 import java.io.*;
 import java.net.*;
+import java.nio.charset.*;
 import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
 
 import com.sun.net.httpserver.*;
 
 public class Server {
     // Port number used to connect to this server
     private static final int PORT = Integer.parseInt(System.getenv().getOrDefault("PORT", "8000"));
+    // Number of shards the index is partitioned into
+    private static final int SHARDS = Integer.parseInt(System.getenv().getOrDefault("SHARDS", "1"));
+    // Whether the index stores term positions, which "quoted phrase" and NEAR/k queries need
+    private static final boolean POSITIONS =
+        Boolean.parseBoolean(System.getenv().getOrDefault("POSITIONS", "true"));
+    // Directory of the on-disk index, or empty to keep the index in memory
+    private static final String INDEX_DIR = System.getenv().getOrDefault("INDEX_DIR", "");
+    // Number of threads handling requests
+    private static final int THREADS = Integer.parseInt(System.getenv().getOrDefault(
+        "THREADS", Integer.toString(Runtime.getRuntime().availableProcessors())));
+    // Maximum number of queries whose responses are cached
+    private static final int CACHE_SIZE =
+        Integer.parseInt(System.getenv().getOrDefault("CACHE_SIZE", "1024"));
     // Maximum number of matches returned in response
     private static final int MAX_MATCHES = 10;
-    // Maximum number of terms to display in preview
-    private static final int MAX_TERMS = 50;
-    // JSON endpoint structure
-    private static final String QUERY_TEMPLATE = "{\"items\":[%s]}";
+    // JSON endpoint structure, written before and after the matches
+    private static final String QUERY_START = "{\"items\":[";
+    private static final String QUERY_END = "]}";
+    // JSON structure of the cache statistics
+    private static final String STATS_TEMPLATE =
+        "{\"cache\":{\"size\":%d,\"hits\":%d,\"misses\":%d,\"hitRate\":%.4f}}";
 
     public static void main(String[] args) throws IOException {
-        if (args.length == 0) {
+        if (args.length == 0 && INDEX_DIR.isEmpty()) {
             throw new IllegalArgumentException("java Server [files]");
         }
-        SearchEngine engine = new SearchEngine();
-        for (String filename : args) {
-            engine.index(Files.readString(Paths.get(filename)));
+        // An on-disk index keeps every file indexed by earlier runs, so only new files are needed
+        SearchEngine engine = INDEX_DIR.isEmpty()
+                              ? new SearchEngine(SHARDS, POSITIONS)
+                              : SearchEngine.open(Paths.get(INDEX_DIR), SHARDS, POSITIONS);
+        List<String> documents = Arrays.stream(args).parallel().map(filename -> {
+            try {
+                return Files.readString(Paths.get(filename));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).collect(Collectors.toList());
+        engine.indexAll(documents);
+        if (!INDEX_DIR.isEmpty()) {
+            engine.flush();
+        } else {
+            engine.refresh();
         }
         HttpServer server = HttpServer.create(new InetSocketAddress(PORT), 0);
         server.createContext("/", (HttpExchange t) -> {
             String html = Files.readString(Paths.get("index.html"));
             send(t, "text/html; charset=utf-8", html);
         });
+        // Encoded responses of popular queries, emptied whenever a refresh or merge changes the index
+        ResultCache<byte[]> cache = new ResultCache<>(CACHE_SIZE);
         server.createContext("/query", (HttpExchange t) -> {
             String s = parse("s", t.getRequestURI().getQuery().split("&"));
-            if (s.equals("")) {
-                send(t, "application/json", String.format(QUERY_TEMPLATE, ""));
+            Query query = Query.parse(s);
+            String key = query.key();
+            // Read before searching, so a response is never cached under a later version
+            long version = engine.version();
+            byte[] cached = cache.get(key, version);
+            if (cached != null) {
+                send(t, "application/json", cached);
                 return;
             }
-            send(t, "application/json", String.format(QUERY_TEMPLATE, json(engine.search(s))));
+            List<Hit> hits = engine.hits(query, MAX_MATCHES);
+            // Streams the response with chunked encoding, keeping a copy for the cache
+            t.getResponseHeaders().set("Content-Type", "application/json");
+            t.sendResponseHeaders(200, 0);
+            ByteArrayOutputStream copy = new ByteArrayOutputStream();
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                     new Tee(t.getResponseBody(), copy), StandardCharsets.UTF_8))) {
+                out.write(QUERY_START);
+                json(hits, new HashSet<>(query.terms()), out);
+                out.write(QUERY_END);
+            }
+            cache.put(key, copy.toByteArray(), version);
         });
-        server.setExecutor(null);
+        server.createContext("/stats", (HttpExchange t) -> {
+            String stats = String.format(Locale.ROOT, STATS_TEMPLATE, cache.size(), cache.hits(),
+                                         cache.misses(), cache.hitRate());
+            send(t, "application/json", stats);
+        });
+        server.setExecutor(Executors.newFixedThreadPool(THREADS));
         server.start();
     }
 
@@ -54,40 +108,120 @@ public class Server {
 
     private static void send(HttpExchange t, String contentType, String data)
             throws IOException, UnsupportedEncodingException {
+        send(t, contentType, data.getBytes("UTF-8"));
+    }
+
+    private static void send(HttpExchange t, String contentType, byte[] response)
+            throws IOException {
         t.getResponseHeaders().set("Content-Type", contentType);
-        byte[] response = data.getBytes("UTF-8");
         t.sendResponseHeaders(200, response.length);
         try (OutputStream os = t.getResponseBody()) {
             os.write(response);
         }
     }
 
-    private static String json(Iterable<String> matches) {
-        Iterator<String> iter = matches.iterator();
-        StringBuilder results = new StringBuilder();
-        for (int i = 0; i < MAX_MATCHES && iter.hasNext(); i += 1) {
-            if (results.length() > 0) {
+    // Builds each result from the title and preview stored in the index, so a response never
+    // reads the rest of a document
+    private static void json(List<Hit> hits, Set<String> terms, Writer results)
+            throws IOException {
+        for (int i = 0; i < hits.size(); i += 1) {
+            if (i > 0) {
                 results.append(',');
             }
-            String[] pair = iter.next().split("\n", 2);
-            String title = pair[0].replace("\"", "\\\"");
-            String body = preview(pair[1]).replace("\"", "\\\"");
             results.append('{')
                    .append("\"title\":")
-                   .append('"').append(title).append('"')
+                   .append('"');
+            escape(hits.get(i).title(), results);
+            results.append('"')
                    .append(',')
                    .append("\"body\":")
-                   .append('"').append(body).append('"')
+                   .append('"');
+            escape(highlight(hits.get(i).preview(), terms), results);
+            results.append('"')
                    .append('}');
         }
-        return results.toString();
     }
 
-    private static String preview(String text) {
-        List<String> terms = Arrays.asList(text.split("\\s+"));
-        if (terms.size() > MAX_TERMS) {
-            return String.join(" ", terms.subList(0, MAX_TERMS)) + "...";
+    // Returns the preview as HTML, with every word that matches a query term in bold
+    private static String highlight(String preview, Set<String> terms) {
+        StringBuilder html = new StringBuilder(preview.length() + 16);
+        Tokenizer tokenizer = new Tokenizer();
+        boolean[] match = new boolean[1];
+        int start = 0;
+        while (start < preview.length()) {
+            int end = start;
+            boolean space = Tokenizer.isWhitespace(preview.charAt(start));
+            while (end < preview.length() && Tokenizer.isWhitespace(preview.charAt(end)) == space) {
+                end += 1;
+            }
+            String word = preview.substring(start, end);
+            match[0] = false;
+            if (!space) {
+                tokenizer.tokenize(word, term -> match[0] |= terms.contains(term));
+            }
+            if (match[0]) {
+                html.append("<b>");
+            }
+            for (int i = 0; i < word.length(); i += 1) {
+                char c = word.charAt(i);
+                if (c == '<') {
+                    html.append("&lt;");
+                } else if (c == '>') {
+                    html.append("&gt;");
+                } else if (c == '&') {
+                    html.append("&amp;");
+                } else {
+                    html.append(c);
+                }
+            }
+            if (match[0]) {
+                html.append("</b>");
+            }
+            start = end;
+        }
+        return html.toString();
+    }
+
+    // Appends text as the contents of a JSON string
+    private static void escape(String text, Writer json) throws IOException {
+        for (int i = 0; i < text.length(); i += 1) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < ' ') {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+    }
+
+    // Writes everything written to it to two streams, closing only the first
+    private static class Tee extends OutputStream {
+        private final OutputStream out;
+        private final OutputStream copy;
+
+        private Tee(OutputStream out, OutputStream copy) {
+            this.out = out;
+            this.copy = copy;
+        }
+
+        public void write(int b) throws IOException {
+            out.write(b);
+            copy.write(b);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            copy.write(b, off, len);
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        public void close() throws IOException {
+            out.close();
         }
-        return text;
     }
 }
@@ -0,0 +1,170 @@
+package searchengine;
+
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Splits text into normalized terms in a single pass over its chars, with
+ * the same results as splitting on the regex "\\s+", lowercasing each token
+ * with String.toLowerCase and removing its leading and trailing punctuation
+ * with "(^\\p{P}+\\s*)|(\\s*\\p{P}+$)", but without regular expressions.
+ * Tokens of ASCII text are lowercased and trimmed in place, so each term
+ * costs a single String.
+ */
+class Tokenizer {
+
+    // ASCII_PUNCTUATION[c] tells whether ASCII character c is in \p{P}
+    private static final boolean[] ASCII_PUNCTUATION = new boolean[128];
+
+    static {
+        for (char c = 0; c < 128; c += 1) {
+            ASCII_PUNCTUATION[c] = isPunctuation(c);
+        }
+    }
+
+    // Holds the characters of the current ASCII term
+    private char[] buffer;
+
+    /**
+     * Constructs a new Tokenizer. A Tokenizer reuses its buffer between
+     * calls, so each thread needs its own.
+     */
+    Tokenizer() {
+        buffer = new char[32];
+    }
+
+    /**
+     * Passes every non-empty normalized term of the text, in order, to the
+     * consumer.
+     *
+     * @param text  Any non-null string.
+     * @param terms Receives each term.
+     */
+    void tokenize(String text, Consumer<String> terms) {
+        // Turkish and Azeri lowercase ASCII 'I' to a non-ASCII letter
+        String language = Locale.getDefault().getLanguage();
+        boolean asciiLowercase = !language.equals("tr") && !language.equals("az");
+        int length = text.length();
+        int start = 0;
+        while (start < length) {
+            while (start < length && isWhitespace(text.charAt(start))) {
+                start += 1;
+            }
+            int end = start;
+            boolean ascii = true;
+            while (end < length && !isWhitespace(text.charAt(end))) {
+                ascii &= text.charAt(end) < 128;
+                end += 1;
+            }
+            if (start < end) {
+                String term = ascii && asciiLowercase ? ascii(text, start, end)
+                                                      : unicode(text.substring(start, end));
+                if (!term.isEmpty()) {
+                    terms.accept(term);
+                }
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Private method that normalizes an ASCII token. In ASCII, lowercasing
+     * never turns punctuation into anything else, so the token is trimmed
+     * before being lowercased.
+     *
+     * @param text  The text holding the token.
+     * @param start The index of the token's first char.
+     * @param end   The index after the token's last char.
+     * @return the normalized term, which may be empty.
+     */
+    private String ascii(String text, int start, int end) {
+        while (start < end && ASCII_PUNCTUATION[text.charAt(start)]) {
+            start += 1;
+        }
+        while (end > start && ASCII_PUNCTUATION[text.charAt(end - 1)]) {
+            end -= 1;
+        }
+        if (end - start > buffer.length) {
+            buffer = new char[Math.max(end - start, 2 * buffer.length)];
+        }
+        for (int i = start; i < end; i += 1) {
+            char c = text.charAt(i);
+            buffer[i - start] = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return new String(buffer, 0, end - start);
+    }
+
+    /**
+     * Private method that normalizes a token containing non-ASCII chars.
+     * Lowercasing can depend on context and change the length of the token,
+     * so the whole token is lowercased before being trimmed, exactly as the
+     * regex version did.
+     *
+     * @param token A token with no whitespace.
+     * @return the normalized term, which may be empty.
+     */
+    private static String unicode(String token) {
+        String lower = token.toLowerCase();
+        int start = 0;
+        while (start < lower.length() && isPunctuation(lower.codePointAt(start))) {
+            start += Character.charCount(lower.codePointAt(start));
+        }
+        // Like '$', punctuation may also be trimmed from before a final line terminator
+        int tail = lower.length();
+        if (tail > start && isLineTerminator(lower.charAt(tail - 1))) {
+            tail -= 1;
+        }
+        int end = tail;
+        while (end > start && isPunctuation(lower.codePointBefore(end))) {
+            end -= Character.charCount(lower.codePointBefore(end));
+        }
+        if (start == 0 && end == lower.length()) {
+            return lower;
+        }
+        return lower.substring(start, end) + lower.substring(tail);
+    }
+
+    /**
+     * Tells whether a char separates terms, as the regex "\\s" would.
+     *
+     * @param c Any char.
+     * @return true if c is an ASCII space, tab, line feed, vertical tab, form
+     * feed or carriage return.
+     */
+    static boolean isWhitespace(char c) {
+        return c == ' ' || (c >= '\t' && c <= '\r');
+    }
+
+    /**
+     * Private method that tells whether a code point is matched by the regex
+     * "\\p{P}".
+     *
+     * @param codePoint Any code point.
+     * @return true if codePoint is in a Unicode punctuation category.
+     */
+    private static boolean isPunctuation(int codePoint) {
+        switch (Character.getType(codePoint)) {
+            case Character.CONNECTOR_PUNCTUATION:
+            case Character.DASH_PUNCTUATION:
+            case Character.START_PUNCTUATION:
+            case Character.END_PUNCTUATION:
+            case Character.INITIAL_QUOTE_PUNCTUATION:
+            case Character.FINAL_QUOTE_PUNCTUATION:
+            case Character.OTHER_PUNCTUATION:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Private method that tells whether a char that can occur inside a token
+     * is a line terminator, before which the regex "$" also matches.
+     *
+     * @param c Any char.
+     * @return true if c is a next line, line separator or paragraph separator.
+     */
+    private static boolean isLineTerminator(char c) {
+        return c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
@@ -0,0 +1,158 @@
+package searchengine;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Keeps the k highest-scoring documents offered to it in a bounded binary
+ * min-heap of primitive scores and IDs, so that the lowest score to beat is
+ * always at hand. Of two documents with equal scores, the one with the
+ * smaller ID ranks higher.
+ */
+class TopDocs {
+
+    // Heap-ordered scores and IDs; the worst of the kept documents is at index 0
+    private final double[] scores;
+    private final int[] docs;
+    // Number of documents kept
+    private int size;
+
+    /**
+     * Constructs a new, empty TopDocs keeping at most k documents.
+     *
+     * @param k The maximum number of documents to keep.
+     * @throws IllegalArgumentException if k is negative.
+     */
+    TopDocs(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k cannot be negative");
+        }
+        scores = new double[k];
+        docs = new int[k];
+    }
+
+    /**
+     * Returns the score a document must exceed to be kept.
+     *
+     * @return the lowest kept score once k documents are kept, otherwise
+     * negative infinity.
+     */
+    double threshold() {
+        if (size < scores.length) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return scores.length == 0 ? Double.POSITIVE_INFINITY : scores[0];
+    }
+
+    /**
+     * Offers a document, keeping it if it ranks among the k best so far.
+     *
+     * @param doc   The document's ID.
+     * @param score The document's score.
+     */
+    void offer(int doc, double score) {
+        if (size < scores.length) {
+            scores[size] = score;
+            docs[size] = doc;
+            siftUp(size);
+            size += 1;
+        } else if (size > 0 && worse(0, score, doc)) {
+            scores[0] = score;
+            docs[0] = doc;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Offers every document kept by another TopDocs under new IDs.
+     *
+     * @param other The TopDocs whose documents to offer.
+     * @param ids   Maps each of other's IDs to the ID to offer it under,
+     *              preserving their order.
+     */
+    void offerAll(TopDocs other, IntUnaryOperator ids) {
+        for (int i = 0; i < other.size; i += 1) {
+            offer(ids.applyAsInt(other.docs[i]), other.scores[i]);
+        }
+    }
+
+    /**
+     * Returns the kept document IDs from highest to lowest rank. Empties
+     * this TopDocs.
+     *
+     * @return the IDs of the kept documents in rank order.
+     */
+    int[] drain() {
+        int[] result = new int[size];
+        for (int i = size - 1; i >= 0; i -= 1) {
+            result[i] = docs[0];
+            size -= 1;
+            scores[0] = scores[size];
+            docs[0] = docs[size];
+            siftDown(0);
+        }
+        return result;
+    }
+
+    /**
+     * Private method that moves the entry at i up until its parent is worse.
+     *
+     * @param i The index of the entry to move.
+     */
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!worse(i, scores[parent], docs[parent])) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    /**
+     * Private method that moves the entry at i down until no child is worse.
+     *
+     * @param i The index of the entry to move.
+     */
+    private void siftDown(int i) {
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && worse(child + 1, scores[child], docs[child])) {
+                child += 1;
+            }
+            if (!worse(child, scores[i], docs[i])) {
+                return;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    /**
+     * Private method that tells whether the entry at i ranks below the given
+     * document.
+     *
+     * @param i     The index of a kept entry.
+     * @param score The other document's score.
+     * @param doc   The other document's ID.
+     * @return true if the entry at i ranks below the other document.
+     */
+    private boolean worse(int i, double score, int doc) {
+        return scores[i] < score || (scores[i] == score && docs[i] > doc);
+    }
+
+    /**
+     * Private method that swaps the entries at i and j.
+     *
+     * @param i The index of one entry.
+     * @param j The index of the other entry.
+     */
+    private void swap(int i, int j) {
+        double score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+        int doc = docs[i];
+        docs[i] = docs[j];
+        docs[j] = doc;
+    }
+}
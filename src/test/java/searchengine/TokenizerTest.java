@@ -0,0 +1,55 @@
+package searchengine;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Checks that Tokenizer produces the same terms as the regexes it replaced, on random text full of
+// ASCII and Unicode punctuation, odd whitespace, line separators and supplementary characters.
+public class TokenizerTest {
+    // Characters the random strings draw from, grouped by how the tokenizer treats them
+    private static final String[] ALPHABET = {
+        "abcixyzABCIXYZ0189", " \t\n\u000B\f\r", "!\"#%&'()*,-./:;?@[\\]_{}", "$+<=>^`|~",
+        "¡«»¿‐—‘’“”…、。！",
+        "éÉßİıΣσ\u00A0\u3000", "\u0085\u2028\u2029",
+        "𐐀𝐀😀𐄀"
+    };
+
+    @Test
+    public void matchesRegexOnRandomText() {
+        Random random = new Random(143);
+        Tokenizer tokenizer = new Tokenizer();
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < 200_000; i += 1) {
+            s.setLength(0);
+            int length = random.nextInt(12);
+            for (int j = 0; j < length; j += 1) {
+                String group = ALPHABET[random.nextInt(ALPHABET.length)];
+                int k = random.nextInt(group.length());
+                if (Character.isSurrogate(group.charAt(k))) {
+                    k -= k % 2;
+                    s.append(group, k, k + 2);
+                } else {
+                    s.append(group.charAt(k));
+                }
+            }
+            List<String> actual = new ArrayList<>();
+            tokenizer.tokenize(s.toString(), actual::add);
+            assertEquals(regexTerms(s.toString()), actual, "terms of \"" + s + "\"");
+        }
+    }
+
+    // Splits text into terms the way SearchEngine did before Tokenizer.
+    private static List<String> regexTerms(String text) {
+        List<String> terms = new ArrayList<>();
+        for (String token : text.split("\\s+")) {
+            String term = token.toLowerCase().replaceAll("(^\\p{P}+\\s*)|(\\s*\\p{P}+$)", "");
+            if (!term.isEmpty()) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+}